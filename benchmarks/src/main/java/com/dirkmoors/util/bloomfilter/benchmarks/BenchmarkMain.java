@@ -0,0 +1,25 @@
+package com.dirkmoors.util.bloomfilter.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH's Main with the gc profiler always on, so every result carries the
+ * allocation rate per operation next to the time.
+ */
+public class BenchmarkMain {
+	public static void main(String[] args) throws Exception{
+		CommandLineOptions cmdOptions = new CommandLineOptions(args);
+		if(cmdOptions.shouldHelp() || cmdOptions.shouldList() || cmdOptions.shouldListProfilers() || 
+				cmdOptions.shouldListResultFormats()){
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		new Runner(new OptionsBuilder()
+			.parent(cmdOptions)
+			.addProfiler(GCProfiler.class)
+			.build()).run();
+	}
+}
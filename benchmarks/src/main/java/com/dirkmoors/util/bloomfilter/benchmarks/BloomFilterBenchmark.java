@@ -0,0 +1,104 @@
+package com.dirkmoors.util.bloomfilter.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.probegenerators.BloomFilterProbeGenerators;
+
+/**
+ * add, contains, union and intersection on BloomFilters sized from a few KB
+ * (L1 resident) to a few hundred MB (the largest an int bit index allows),
+ * holding the english words. LargeBloomFilterBenchmark covers multi-GB.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class BloomFilterBenchmark {
+	private static final double ERROR_RATE = 0.001;
+	
+	@Param({"MURMUR", "MERSENNE", "MURMUR3_128"})
+	public String gen;
+	
+	//1000: 2 KB, 100000: 180 KB, 10000000: 17 MB, 100000000: 171 MB
+	@Param({"1000", "100000", "10000000", "100000000"})
+	public long n;
+	
+	private String[] words;
+	private String[] misses;
+	private int index;
+	
+	private BloomFilter bf;
+	private BloomFilter other;
+	private BloomFilter target;
+	
+	@Setup
+	public void setup() throws IOException{
+		this.words = Keys.words();
+		this.misses = Keys.misses(this.words);
+		this.bf = new BloomFilter(this.n, ERROR_RATE, BloomFilterProbeGenerators.getProbeGenerator(this.gen));
+		this.other = new BloomFilter(this.n, ERROR_RATE, BloomFilterProbeGenerators.getProbeGenerator(this.gen));
+		this.target = new BloomFilter(this.n, ERROR_RATE, BloomFilterProbeGenerators.getProbeGenerator(this.gen));
+		for(int i = 0; i < this.words.length; i++){
+			(i % 2 == 0 ? this.bf : this.other).add(this.words[i]);
+		}
+		for(String word : this.words){
+			this.target.add(word);
+		}
+	}
+	
+	private int next(){
+		int result = this.index;
+		if(++this.index == this.words.length){
+			this.index = 0;
+		}
+		return result;
+	}
+	
+	@Benchmark
+	public void add(){
+		this.bf.add(this.words[next()]);
+	}
+	
+	@Benchmark
+	public Result containsHit(){
+		return this.target.contains(this.words[next()]);
+	}
+	
+	@Benchmark
+	public Result containsMiss(){
+		return this.target.contains(this.misses[next()]);
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public BloomFilter union(){
+		this.bf.union(this.other);
+		return this.bf;
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public BloomFilter intersection(){
+		this.target.intersection(this.other);
+		return this.target;
+	}
+}
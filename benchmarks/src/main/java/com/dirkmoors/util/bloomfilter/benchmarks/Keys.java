@@ -0,0 +1,37 @@
+package com.dirkmoors.util.bloomfilter.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Benchmark keys: the words in res/test/english-words.txt, or the file named
+ * by the bloomfilter.words system property.
+ */
+final class Keys {
+	static final String WORDS_PROPERTY = "bloomfilter.words";
+	static final String DEFAULT_WORDS = "res/test/english-words.txt";
+	
+	private Keys(){}
+	
+	static String[] words() throws IOException{
+		//Not valid UTF-8 throughout, so read as latin 1 like the unit tests
+		List<String> lines = Files.readAllLines(Paths.get(System.getProperty(WORDS_PROPERTY, DEFAULT_WORDS)), 
+			Charset.forName("ISO-8859-1"));
+		return lines.toArray(new String[lines.size()]);
+	}
+	
+	/**
+	 * @return the words with a suffix no word has, so every lookup misses
+	 *         (false positives aside).
+	 */
+	static String[] misses(String[] words){
+		String[] result = new String[words.length];
+		for(int i = 0; i < words.length; i++){
+			result[i] = words[i] + "\u0001";
+		}
+		return result;
+	}
+}
@@ -0,0 +1,110 @@
+package com.dirkmoors.util.bloomfilter.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.LargeBloomFilter;
+import com.dirkmoors.util.bloomfilter.probegenerators.BloomFilterProbeGenerators;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterLongProbeGenerator;
+
+/**
+ * The BloomFilterBenchmark operations on multi-GB LargeBloomFilters, where
+ * nearly every probe misses the caches and the TLB. Needs about 8 GB of 
+ * memory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class LargeBloomFilterBenchmark {
+	private static final double ERROR_RATE = 0.001;
+	
+	@Param({"MURMUR", "MERSENNE", "MURMUR3_128"})
+	public String gen;
+	
+	//1.7 GB per filter
+	@Param({"1000000000"})
+	public long n;
+	
+	private String[] words;
+	private String[] misses;
+	private int index;
+	
+	private LargeBloomFilter bf;
+	private LargeBloomFilter other;
+	
+	@Setup
+	public void setup() throws IOException{
+		this.words = Keys.words();
+		this.misses = Keys.misses(this.words);
+		this.bf = new LargeBloomFilter(this.n, ERROR_RATE, generator());
+		this.other = new LargeBloomFilter(this.n, ERROR_RATE, generator());
+		for(int i = 0; i < this.words.length; i++){
+			this.bf.add(this.words[i]);
+			if(i % 2 == 0){
+				this.other.add(this.words[i]);
+			}
+		}
+	}
+	
+	private IBloomFilterLongProbeGenerator generator(){
+		return (IBloomFilterLongProbeGenerator)BloomFilterProbeGenerators.getProbeGenerator(this.gen);
+	}
+	
+	private int next(){
+		int result = this.index;
+		if(++this.index == this.words.length){
+			this.index = 0;
+		}
+		return result;
+	}
+	
+	@Benchmark
+	public void add(){
+		this.bf.add(this.words[next()]);
+	}
+	
+	@Benchmark
+	public Result containsHit(){
+		return this.bf.contains(this.words[next()]);
+	}
+	
+	@Benchmark
+	public Result containsMiss(){
+		return this.bf.contains(this.misses[next()]);
+	}
+	
+	//other only holds words of bf, so neither changes the bits
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Measurement(iterations = 10)
+	public LargeBloomFilter union(){
+		this.bf.union(this.other);
+		return this.bf;
+	}
+	
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Measurement(iterations = 10)
+	public LargeBloomFilter intersection(){
+		this.other.intersection(this.bf);
+		return this.other;
+	}
+}
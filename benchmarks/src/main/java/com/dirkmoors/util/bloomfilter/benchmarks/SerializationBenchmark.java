@@ -0,0 +1,93 @@
+package com.dirkmoors.util.bloomfilter.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter;
+import com.dirkmoors.util.bloomfilter.probegenerators.BloomFilterProbeGenerators;
+
+/**
+ * toJSON and fromJSON, both the String and the streaming variants, with and
+ * without zlib compression.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class SerializationBenchmark {
+	private static final double ERROR_RATE = 0.001;
+	
+	@Param({"MURMUR", "MERSENNE", "MURMUR3_128"})
+	public String gen;
+	
+	@Param({"1000", "100000", "10000000"})
+	public long n;
+	
+	@Param({"true", "false"})
+	public boolean compressed;
+	
+	private BloomFilter bf;
+	private String json;
+	
+	@Setup
+	public void setup() throws IOException{
+		this.bf = new BloomFilter(this.n, ERROR_RATE, BloomFilterProbeGenerators.getProbeGenerator(this.gen));
+		for(String word : Keys.words()){
+			this.bf.add(word);
+		}
+		this.json = this.bf.toJSON(this.compressed);
+	}
+	
+	@Benchmark
+	public String toJSON() throws IOException{
+		return this.bf.toJSON(this.compressed);
+	}
+	
+	@Benchmark
+	public void toJSONStreaming() throws IOException{
+		this.bf.toJSON(NullWriter.INSTANCE, this.compressed);
+	}
+	
+	@Benchmark
+	public BloomFilter fromJSON() throws IOException, DataFormatException{
+		return BloomFilter.fromJSON(this.json);
+	}
+	
+	@Benchmark
+	public BloomFilter fromJSONStreaming() throws IOException, DataFormatException{
+		return BloomFilter.fromJSON(new StringReader(this.json));
+	}
+	
+	private static final class NullWriter extends Writer {
+		static final NullWriter INSTANCE = new NullWriter();
+		
+		@Override
+		public void write(char[] cbuf, int off, int len){
+		}
+		
+		@Override
+		public void flush(){
+		}
+		
+		@Override
+		public void close(){
+		}
+	}
+}
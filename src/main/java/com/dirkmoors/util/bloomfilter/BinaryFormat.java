@@ -0,0 +1,264 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Little endian binary layout shared by the filters that stream their words:
+ *
+ * <pre>
+ * header: magic, format version, flags, layout, n, p, k, m, generator name
+ * body:   chunks of [raw length, stored length, crc32 of raw bytes, bytes]
+ * </pre>
+ *
+ * With FLAG_COMPRESSED every chunk is deflated separately.
+ *
+ * Words are streamed through one fixed size buffer, so writing or reading a
+ * filter needs no memory beyond the filter itself.
+ */
+final class BinaryFormat {
+	static final int MAGIC = 0x464D4C42; //"BLMF" in little endian
+	static final byte FORMAT_VERSION = 1;
+
+	static final byte FLAG_COMPRESSED = 1;
+
+	static final int CHUNK_WORDS = 1 << 17;
+	static final int CHUNK_BYTES = CHUNK_WORDS * 8; //1 MB
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int CHUNK_HEADER_BYTES = 12;
+	//Deflate never grows data by more than a few bytes per 16 KB block
+	private static final int MAX_STORED_BYTES = CHUNK_BYTES + (CHUNK_BYTES >>> 8) + 64;
+
+	private BinaryFormat(){}
+
+	static final class Header {
+		byte flags;
+		byte layout;
+		long idealNumElementsN;
+		double errorRateP;
+		int numProbesK;
+		long numBitsM;
+		String gen;
+	}
+
+	static void writeHeader(WritableByteChannel channel, Header header) throws IOException{
+		byte[] gen = header.gen.getBytes(UTF8);
+		ByteBuffer buffer = ByteBuffer.allocate(40 + gen.length).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.put(FORMAT_VERSION);
+		buffer.put(header.flags);
+		buffer.put(header.layout);
+		buffer.put((byte)0);
+		buffer.putLong(header.idealNumElementsN);
+		buffer.putDouble(header.errorRateP);
+		buffer.putInt(header.numProbesK);
+		buffer.putLong(header.numBitsM);
+		buffer.putInt(gen.length);
+		buffer.put(gen);
+		buffer.flip();
+		writeFully(channel, buffer);
+	}
+
+	static Header readHeader(ReadableByteChannel channel) throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, buffer);
+		buffer.flip();
+		if(buffer.getInt() != MAGIC){
+			throw new IllegalArgumentException("Invalid BloomFilter binary structure");
+		}
+		if(buffer.get() != FORMAT_VERSION){
+			throw new IllegalArgumentException("Incompatible BloomFilter version");
+		}
+		Header header = new Header();
+		header.flags = buffer.get();
+		header.layout = buffer.get();
+		buffer.get();
+		header.idealNumElementsN = buffer.getLong();
+		header.errorRateP = buffer.getDouble();
+		header.numProbesK = buffer.getInt();
+		header.numBitsM = buffer.getLong();
+		int genLength = buffer.getInt();
+		if((header.flags & ~FLAG_COMPRESSED) != 0 || genLength < 0 || genLength > 1024){
+			throw new IllegalArgumentException("Invalid BloomFilter binary structure");
+		}
+		ByteBuffer gen = ByteBuffer.allocate(genLength);
+		readFully(channel, gen);
+		header.gen = new String(gen.array(), UTF8);
+		return header;
+	}
+
+	/**
+	 * Writes numWords words spread over segments, all segments but the last
+	 * holding exactly segmentWords words. Each chunk is deflated on its own
+	 * when compressed is set.
+	 */
+	static void writeWords(WritableByteChannel channel, long[][] segments, int segmentWords, long numWords,
+			boolean compressed) throws IOException{
+		ByteBuffer chunk = ByteBuffer.allocate(CHUNK_HEADER_BYTES + CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer stored = compressed ?
+			ByteBuffer.allocate(CHUNK_HEADER_BYTES + MAX_STORED_BYTES).order(ByteOrder.LITTLE_ENDIAN) :
+			chunk;
+		Deflater deflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+		CRC32 crc = new CRC32();
+		try{
+			long word = 0;
+			while(word < numWords){
+				int words = (int)Math.min(CHUNK_WORDS, numWords - word);
+				int rawLength = words * 8;
+
+				chunk.clear();
+				chunk.position(CHUNK_HEADER_BYTES);
+				copyOut(segments, segmentWords, word, words, chunk.asLongBuffer());
+
+				crc.reset();
+				crc.update(chunk.array(), CHUNK_HEADER_BYTES, rawLength);
+
+				int storedLength = rawLength;
+				if(compressed){
+					deflater.reset();
+					deflater.setInput(chunk.array(), CHUNK_HEADER_BYTES, rawLength);
+					deflater.finish();
+					storedLength = 0;
+					while(!deflater.finished()){
+						if(storedLength == MAX_STORED_BYTES){
+							throw new IllegalStateException("Deflated chunk exceeds "+MAX_STORED_BYTES+" bytes");
+						}
+						storedLength += deflater.deflate(stored.array(),
+							CHUNK_HEADER_BYTES + storedLength, MAX_STORED_BYTES - storedLength);
+					}
+				}
+
+				stored.clear();
+				stored.putInt(0, rawLength);
+				stored.putInt(4, storedLength);
+				stored.putInt(8, (int)crc.getValue());
+				stored.limit(CHUNK_HEADER_BYTES + storedLength);
+				writeFully(channel, stored);
+				word += words;
+			}
+		}
+		finally{
+			if(deflater != null){
+				deflater.end();
+			}
+		}
+	}
+
+	static void readWords(ReadableByteChannel channel, long[][] segments, int segmentWords, long numWords,
+			boolean compressed) throws IOException{
+		ByteBuffer chunk = ByteBuffer.allocate(CHUNK_HEADER_BYTES + CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer stored = compressed ?
+			ByteBuffer.allocate(CHUNK_HEADER_BYTES + MAX_STORED_BYTES).order(ByteOrder.LITTLE_ENDIAN) :
+			chunk;
+		Inflater inflater = compressed ? new Inflater() : null;
+		CRC32 crc = new CRC32();
+		try{
+			long word = 0;
+			while(word < numWords){
+				int words = (int)Math.min(CHUNK_WORDS, numWords - word);
+
+				stored.clear();
+				stored.limit(CHUNK_HEADER_BYTES);
+				readFully(channel, stored);
+				int rawLength = stored.getInt(0);
+				int storedLength = stored.getInt(4);
+				int expectedCrc = stored.getInt(8);
+				if(rawLength != words * 8 || storedLength < 0 ||
+						storedLength > (compressed ? MAX_STORED_BYTES : rawLength)){
+					throw new IllegalArgumentException("Invalid BloomFilter binary structure");
+				}
+
+				stored.limit(CHUNK_HEADER_BYTES + storedLength);
+				readFully(channel, stored);
+
+				if(compressed){
+					inflate(inflater, stored.array(), storedLength, chunk.array(), rawLength);
+				}
+
+				crc.reset();
+				crc.update(chunk.array(), CHUNK_HEADER_BYTES, rawLength);
+				if((int)crc.getValue() != expectedCrc){
+					throw new IllegalArgumentException("Data integrity error");
+				}
+
+				chunk.clear();
+				chunk.position(CHUNK_HEADER_BYTES);
+				copyIn(chunk.asLongBuffer(), segments, segmentWords, word, words);
+				word += words;
+			}
+		}
+		finally{
+			if(inflater != null){
+				inflater.end();
+			}
+		}
+	}
+
+	private static void inflate(Inflater inflater, byte[] stored, int storedLength, byte[] raw, int rawLength){
+		inflater.reset();
+		inflater.setInput(stored, CHUNK_HEADER_BYTES, storedLength);
+		int inflated = 0;
+		try{
+			while(!inflater.finished() && inflated < rawLength){
+				int count = inflater.inflate(raw, CHUNK_HEADER_BYTES + inflated, rawLength - inflated);
+				if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())){
+					break;
+				}
+				inflated += count;
+			}
+		}
+		catch(DataFormatException e){
+			throw new IllegalArgumentException("Data integrity error", e);
+		}
+		if(inflated != rawLength){
+			throw new IllegalArgumentException("Data integrity error");
+		}
+	}
+
+	private static void copyOut(long[][] segments, int segmentWords, long word, int words, LongBuffer out){
+		while(words > 0){
+			long[] segment = segments[(int)(word / segmentWords)];
+			int offset = (int)(word % segmentWords);
+			int length = Math.min(words, segment.length - offset);
+			out.put(segment, offset, length);
+			word += length;
+			words -= length;
+		}
+	}
+
+	private static void copyIn(LongBuffer in, long[][] segments, int segmentWords, long word, int words){
+		while(words > 0){
+			long[] segment = segments[(int)(word / segmentWords)];
+			int offset = (int)(word % segmentWords);
+			int length = Math.min(words, segment.length - offset);
+			in.get(segment, offset, length);
+			word += length;
+			words -= length;
+		}
+	}
+
+	static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException{
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+	}
+
+	static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException{
+		while(buffer.hasRemaining()){
+			if(channel.read(buffer) < 0){
+				throw new EOFException("Truncated BloomFilter stream");
+			}
+		}
+	}
+}
@@ -0,0 +1,440 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.probegenerators.BloomFilterProbeGenerators;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterLongProbeConsumer;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterLongProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.Murmur3ProbeGenerator;
+
+/**
+ * Immutable 3-wise binary fuse filter (Graf and Lemire, "Binary Fuse
+ * Filters: Fast and Smaller Than Xor Filters"), built once from a fixed set
+ * of keys. Every key maps to three slots in consecutive segments of the
+ * array, and the fingerprints in those slots xor to the fingerprint of the
+ * key, so a lookup reads exactly three slots.
+ *
+ * With fingerprints of ceil(log2(1 / errorRateP)) bits the error rate is
+ * 2^-fingerprintBits, at about 1.125 slots per key for large key sets (more
+ * below a few hundred thousand keys). A BloomFilter needs
+ * 1.44 * log2(1 / errorRateP) bits per key and k probes for the same rate:
+ * at errorRateP = 1/256 that is 9 bits per key against 11.5, at 0.0001 about
+ * 15.75 against 19.2. The fingerprints are packed back to back in a long[].
+ * As the keys are fixed, this is a read only IMembershipFilter, and safe to
+ * query from several threads once built.
+ */
+public class BinaryFuseFilter implements IMembershipFilter {
+	public static final String TYPE = "BINARY_FUSE";
+	static final int MAX_ATTEMPTS = 100;
+	private static final int MAX_SEGMENT_LENGTH = 1 << 18;
+
+	private final long numKeys;
+	private final double errorRateP;
+
+	private final int fingerprintBits;
+	private final long fingerprintMask;
+	private final long seed;
+	private final int segmentLength;
+	private final int segmentLengthMask;
+	private final int segmentCount;
+	private final int segmentCountLength;
+	private final int arrayLength;
+	private final long[] data;
+
+	private final IBloomFilterLongProbeGenerator probeGenerator;
+
+	public BinaryFuseFilter(Iterable<String> keys, double errorRateP) {
+		this(keys, errorRateP, null);
+	}
+
+	/**
+	 * Builds the filter from keys; keys that occur more than once are stored
+	 * once.
+	 *
+	 * @param probeGenerator
+	 *            hashes the keys; a single probe over [0, 2^62) is mixed with
+	 *            the seed of the filter to give the three slots and the
+	 *            fingerprint
+	 * @throws IllegalStateException
+	 *             if no seed out of MAX_ATTEMPTS gives a filter, which does
+	 *             not happen in practice.
+	 */
+	public BinaryFuseFilter(Iterable<String> keys, double errorRateP, IBloomFilterLongProbeGenerator probeGenerator) {
+		if(!(0 < errorRateP &&  errorRateP < 1)){
+			throw new IllegalArgumentException("errorRateP must be between 0 and 1 exclusive");
+		}
+		this.errorRateP = errorRateP;
+		this.fingerprintBits = calculateFingerprintBits(errorRateP);
+		this.fingerprintMask = (1L << this.fingerprintBits) - 1;
+		this.probeGenerator = (
+				probeGenerator != null ?
+						probeGenerator :
+						new Murmur3ProbeGenerator());
+
+		long[] keyHashes = hashKeys(keys);
+		this.numKeys = keyHashes.length;
+
+		this.segmentLength = calculateSegmentLength(keyHashes.length);
+		this.segmentLengthMask = this.segmentLength - 1;
+		this.segmentCount = calculateSegmentCount(keyHashes.length, this.segmentLength);
+		this.segmentCountLength = this.segmentCount * this.segmentLength;
+		this.arrayLength = (this.segmentCount + 2) * this.segmentLength;
+		this.data = new long[numWords(this.arrayLength, this.fingerprintBits)];
+
+		this.seed = populate(keyHashes);
+	}
+
+	private BinaryFuseFilter(long numKeys, double errorRateP, int segmentLength, int segmentCount, long seed,
+			IBloomFilterLongProbeGenerator probeGenerator) {
+		this.numKeys = numKeys;
+		this.errorRateP = errorRateP;
+		this.fingerprintBits = calculateFingerprintBits(errorRateP);
+		this.fingerprintMask = (1L << this.fingerprintBits) - 1;
+		this.seed = seed;
+		this.segmentLength = segmentLength;
+		this.segmentLengthMask = segmentLength - 1;
+		this.segmentCount = segmentCount;
+		this.segmentCountLength = segmentCount * segmentLength;
+		this.arrayLength = (segmentCount + 2) * segmentLength;
+		this.data = new long[numWords(this.arrayLength, this.fingerprintBits)];
+		this.probeGenerator = probeGenerator;
+	}
+
+	/**
+	 * @return the number of distinct keys the filter was built from.
+	 */
+	public long getNumberOfKeys(){
+		return this.numKeys;
+	}
+
+	/**
+	 * @return the error rate asked for; the actual rate is
+	 *         2^-getFingerprintBits(), which is at most this.
+	 */
+	public double getErrorRate(){
+		return this.errorRateP;
+	}
+
+	public int getFingerprintBits(){
+		return this.fingerprintBits;
+	}
+
+	/**
+	 * @return the number of fingerprint bits in the filter, for comparison
+	 *         with BloomFilter.getNumberOfBits.
+	 */
+	public long getNumberOfBits(){
+		return (long)this.arrayLength * this.fingerprintBits;
+	}
+
+	public IBloomFilterLongProbeGenerator getProbeGenerator(){
+		return this.probeGenerator;
+	}
+
+	public Result contains(String key){
+		//Every call hashes into its own consumer, so lookups can run at once
+		HashConsumer hashConsumer = new HashConsumer();
+		this.probeGenerator.forEachLongProbe(1, 1L << 62, key, hashConsumer);
+		long hash = mix(hashConsumer.keyHash + this.seed);
+		int h0 = slot0(hash);
+		int h1 = h0 + this.segmentLength;
+		int h2 = h1 + this.segmentLength;
+		h1 ^= (int)(hash >>> 18) & this.segmentLengthMask;
+		h2 ^= (int)hash & this.segmentLengthMask;
+		long fingerprint = fingerprint(hash) ^ getFingerprint(h0) ^ getFingerprint(h1) ^ getFingerprint(h2);
+		return fingerprint == 0 ? Result.MAYBE : Result.NO;
+	}
+
+	public String toJSON() throws JSONException, IOException{
+		return toJSON(true);
+	}
+
+	/**
+	 * Same envelope as BloomFilter.toJSON, with the packed fingerprint words
+	 * as little endian longs in "data". Not readable by the Python library.
+	 */
+	public String toJSON(boolean compressed) throws JSONException, IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(this.data.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.asLongBuffer().put(this.data);
+		byte[] dataBytes = buffer.array();
+		String dataHash = DigestUtils.sha256Hex(dataBytes);
+		if(compressed){
+			dataBytes = BloomFilter.zlibCompress(dataBytes);
+		}
+
+		JSONObject result = new JSONObject();
+		result.put("v", BloomFilter.VERSION);
+		result.put("type", TYPE);
+		result.put("n", this.numKeys);
+		result.put("p", this.errorRateP);
+		result.put("seed", this.seed);
+		result.put("segmentLength", this.segmentLength);
+		result.put("segmentCount", this.segmentCount);
+		result.put("zlib", compressed);
+		result.put("data", new String(Base64.encodeBase64(dataBytes)));
+		result.put("hash", dataHash);
+		result.put("gen", this.probeGenerator.getName());
+		return result.toString();
+	}
+
+	public static BinaryFuseFilter fromJSON(String jsonString) throws IOException, DataFormatException{
+		JSONObject json = new JSONObject(jsonString);
+		String version = json.optString("v", null);
+		String type = json.optString("type", null);
+		long numKeys = json.optLong("n", -1);
+		double errorRateP = json.optDouble("p", -1);
+		int segmentLength = json.optInt("segmentLength", -1);
+		int segmentCount = json.optInt("segmentCount", -1);
+		boolean compressed = json.optBoolean("zlib");
+		String b64data = json.optString("data", null);
+		String dataHash = json.optString("hash", null);
+		String gen = json.optString("gen", null);
+
+		if(version == null || !TYPE.equals(type) || numKeys < 0 || errorRateP == -1 || !json.has("seed") ||
+				segmentLength <= 0 || Integer.bitCount(segmentLength) != 1 || segmentLength > MAX_SEGMENT_LENGTH ||
+				segmentCount <= 0 || (long)(segmentCount + 2) * segmentLength > Integer.MAX_VALUE ||
+				b64data == null || dataHash == null || gen == null){
+			throw new IllegalArgumentException("Invalid BinaryFuseFilter JSON structure");
+		}
+		if(!version.equals(BloomFilter.VERSION)){
+			throw new IllegalArgumentException("Incompatible BloomFilter version");
+		}
+
+		byte[] rawdata = Base64.decodeBase64(b64data);
+		if(compressed){
+			rawdata = BloomFilter.zlibDecompress(rawdata);
+		}
+		if(!DigestUtils.sha256Hex(rawdata).equals(dataHash)){
+			throw new IllegalArgumentException("Data integrity error");
+		}
+
+		BinaryFuseFilter result = new BinaryFuseFilter(numKeys, errorRateP, segmentLength, segmentCount,
+			json.getLong("seed"), (IBloomFilterLongProbeGenerator)BloomFilterProbeGenerators.getProbeGenerator(gen));
+		if(rawdata.length != result.data.length * 8){
+			throw new IllegalArgumentException("Mismatched BinaryFuseFilter size");
+		}
+		ByteBuffer.wrap(rawdata).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(result.data);
+		return result;
+	}
+
+	/**
+	 * @return the smallest width with 2^-bits <= errorRateP.
+	 */
+	static int calculateFingerprintBits(double errorRateP){
+		int bits = (int)Math.ceil(Math.log(1 / errorRateP) / Math.log(2));
+		if(bits > 32){
+			throw new IllegalArgumentException("errorRateP too small for a BinaryFuseFilter");
+		}
+		return Math.max(bits, 1);
+	}
+
+	static int calculateSegmentLength(int size){
+		if(size == 0){
+			return 4;
+		}
+		int bits = (int)Math.floor(Math.log(size) / Math.log(3.33) + 2.25);
+		return Math.min(1 << bits, MAX_SEGMENT_LENGTH);
+	}
+
+	/**
+	 * @return the number of segments the first slot of a key can be in; the
+	 *         array holds two more, for the second and third slot.
+	 */
+	static int calculateSegmentCount(int size, int segmentLength){
+		long capacity = 0;
+		if(size > 1){
+			double sizeFactor = Math.max(1.125, 0.875 + 0.25 * Math.log(1000000) / Math.log(size));
+			capacity = Math.round(size * sizeFactor);
+		}
+		long segmentCount = (capacity + segmentLength - 1) / segmentLength - 2;
+		if(segmentCount < 1){
+			segmentCount = 1;
+		}
+		if((segmentCount + 2) * segmentLength > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("BinaryFuseFilter too large");
+		}
+		return (int)segmentCount;
+	}
+
+	private static int numWords(int arrayLength, int fingerprintBits){
+		//One spare word, so a fingerprint spanning two words never needs a check
+		long numWords = ((long)arrayLength * fingerprintBits + 63) / 64 + 1;
+		if(numWords > Integer.MAX_VALUE - 8){
+			throw new IllegalArgumentException("BinaryFuseFilter too large");
+		}
+		return (int)numWords;
+	}
+
+	/**
+	 * @return the sorted hashes of the distinct keys.
+	 */
+	private long[] hashKeys(Iterable<String> keys){
+		HashConsumer hashConsumer = new HashConsumer();
+		long[] result = new long[1024];
+		int count = 0;
+		for(String key : keys){
+			if(count == result.length){
+				result = Arrays.copyOf(result, result.length << 1);
+			}
+			this.probeGenerator.forEachLongProbe(1, 1L << 62, key, hashConsumer);
+			result[count++] = hashConsumer.keyHash;
+		}
+		Arrays.sort(result, 0, count);
+		int distinct = 0;
+		for(int i = 0; i < count; i++){
+			if(distinct == 0 || result[i] != result[distinct - 1]){
+				result[distinct++] = result[i];
+			}
+		}
+		return Arrays.copyOf(result, distinct);
+	}
+
+	/**
+	 * Tries seeds until every key can be peeled off a slot it holds alone,
+	 * then assigns the fingerprints in reverse peeling order.
+	 *
+	 * @return the seed used.
+	 */
+	private long populate(long[] keyHashes){
+		int size = keyHashes.length;
+		//Per slot: the number of keys times 4, xor the index (0, 1 or 2) of the slot for each key
+		int[] t2count = new int[this.arrayLength];
+		long[] t2hash = new long[this.arrayLength];
+		int[] alone = new int[this.arrayLength];
+		long[] stackHash = new long[size];
+		byte[] stackFound = new byte[size];
+		int[] h012 = new int[5];
+
+		long seedState = 0x726F7365L;
+		for(int attempt = 0; attempt < MAX_ATTEMPTS; attempt++){
+			seedState += 0x9E3779B97F4A7C15L;
+			long seed = mix(seedState);
+			Arrays.fill(t2count, 0);
+			Arrays.fill(t2hash, 0);
+
+			for(long keyHash : keyHashes){
+				long hash = mix(keyHash + seed);
+				slots(hash, h012);
+				for(int i = 0; i < 3; i++){
+					t2count[h012[i]] = (t2count[h012[i]] + 4) ^ i;
+					t2hash[h012[i]] ^= hash;
+				}
+			}
+
+			int queueSize = 0;
+			for(int i = 0; i < this.arrayLength; i++){
+				alone[queueSize] = i;
+				queueSize += (t2count[i] >> 2) == 1 ? 1 : 0;
+			}
+			int stackSize = 0;
+			while(queueSize > 0){
+				int index = alone[--queueSize];
+				if((t2count[index] >> 2) != 1){
+					continue;
+				}
+				long hash = t2hash[index];
+				int found = t2count[index] & 3;
+				stackHash[stackSize] = hash;
+				stackFound[stackSize] = (byte)found;
+				stackSize++;
+
+				slots(hash, h012);
+				for(int i = 1; i < 3; i++){
+					int other = h012[found + i];
+					alone[queueSize] = other;
+					queueSize += (t2count[other] >> 2) == 2 ? 1 : 0;
+					t2count[other] = (t2count[other] - 4) ^ ((found + i) % 3);
+					t2hash[other] ^= hash;
+				}
+			}
+
+			if(stackSize == size){
+				for(int i = size - 1; i >= 0; i--){
+					long hash = stackHash[i];
+					int found = stackFound[i];
+					slots(hash, h012);
+					setFingerprint(h012[found], fingerprint(hash) ^
+						getFingerprint(h012[found + 1]) ^ getFingerprint(h012[found + 2]));
+				}
+				return seed;
+			}
+		}
+		throw new IllegalStateException("Could not build BinaryFuseFilter");
+	}
+
+	/**
+	 * Fills h012 with the three slots of hash, repeating the first two so
+	 * that h012[found + 1] and h012[found + 2] are the other two.
+	 */
+	private void slots(long hash, int[] h012){
+		int h0 = slot0(hash);
+		h012[0] = h0;
+		h012[1] = (h0 + this.segmentLength) ^ ((int)(hash >>> 18) & this.segmentLengthMask);
+		h012[2] = (h0 + 2 * this.segmentLength) ^ ((int)hash & this.segmentLengthMask);
+		h012[3] = h012[0];
+		h012[4] = h012[1];
+	}
+
+	//High 64 bits of hash * segmentCountLength, a slot in [0, segmentCountLength)
+	private int slot0(long hash){
+		long length = this.segmentCountLength;
+		return (int)(((hash >>> 32) * length + (((hash & 0xFFFFFFFFL) * length) >>> 32)) >>> 32);
+	}
+
+	private long fingerprint(long hash){
+		return (hash ^ (hash >>> 32)) & this.fingerprintMask;
+	}
+
+	//Finalizer of MurmurHash3
+	private static long mix(long hash){
+		hash ^= hash >>> 33;
+		hash *= 0xFF51AFD7ED558CCDL;
+		hash ^= hash >>> 33;
+		hash *= 0xC4CEB9FE1A85EC53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private long getFingerprint(int slot){
+		long bit = (long)slot * this.fingerprintBits;
+		int word = (int)(bit >>> 6);
+		int shift = (int)(bit & 63);
+		long value = this.data[word] >>> shift;
+		if(shift + this.fingerprintBits > 64){
+			value |= this.data[word + 1] << (64 - shift);
+		}
+		return value & this.fingerprintMask;
+	}
+
+	private void setFingerprint(int slot, long fingerprint){
+		long bit = (long)slot * this.fingerprintBits;
+		int word = (int)(bit >>> 6);
+		int shift = (int)(bit & 63);
+		this.data[word] = (this.data[word] & ~(this.fingerprintMask << shift)) | (fingerprint << shift);
+		if(shift + this.fingerprintBits > 64){
+			int high = 64 - shift;
+			this.data[word + 1] = (this.data[word + 1] & ~(this.fingerprintMask >>> high)) |
+				(fingerprint >>> high);
+		}
+	}
+
+	private static final class HashConsumer implements IBloomFilterLongProbeConsumer {
+		long keyHash;
+
+		@Override
+		public boolean accept(long probe) {
+			this.keyHash = probe;
+			return false;
+		}
+	}
+}
@@ -2,8 +2,21 @@ package com.dirkmoors.util.bloomfilter;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.math.BigInteger;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
@@ -17,33 +30,82 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.dirkmoors.util.bloomfilter.probegenerators.BloomFilterProbeGenerators;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeConsumer;
 import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeGenerator;
 import com.dirkmoors.util.bloomfilter.probegenerators.MurmurProbeGenerator;;
 
-public class BloomFilter {	
+public class BloomFilter implements IMutableMembershipFilter {	
 	private static final Logger logger = LoggerFactory.getLogger(BloomFilter.class.getName());
 	
 	public static final String VERSION = "1.0";
 	
+	static final int BLOCK_BITS = 512;
+	static final int BATCH_KEYS = 1 << 13;
+	static final int DELTA_BLOCK_WORDS = 16;
+	static final int SPARSE_MIN_WORDS = 1024;
+	static final int MERGE_CHUNK_WORDS = 1024;
+	
 	private long idealNumElementsN;	
 	private double errorRateP;
+	private Layout layout;
 	
 	private int numBitsM;
 	private int numProbesK;
 	private int numWords;
+	private int numWireWords;
 	private long[] data;	
+	//Holds the bits instead of data while few are set, see densify
+	private SparseBits sparseBits;
+	//Kept up to date by add, -1 when it has to be counted again
+	private long numBitsSet;
+	//Bumped by every change, blockVersions holds the last one of each delta block
+	private long version;
+	private long minDeltaVersion;
+	private long[] blockVersions;
 	
 	private IBloomFilterProbeGenerator probeGenerator;
+	
+	private static volatile IBloomFilterMetrics defaultMetrics;
+	//Null when disabled, so the hot path only pays a null check
+	private IBloomFilterMetrics metrics;
+	
+	//Bits are packed 64 per word: word bitno / 64, bit bitno % 64
+	private final IBloomFilterProbeConsumer setBitConsumer = new IBloomFilterProbeConsumer() {
+		@Override
+		public boolean accept(int bitno) {
+			setBit(bitno);
+			return true;
+		}
+	};
+	
+	private final IBloomFilterProbeConsumer testBitConsumer = new IBloomFilterProbeConsumer() {
+		@Override
+		public boolean accept(int bitno) {
+			return testBit(bitno);
+		}
+	};
 		
 	public BloomFilter(long idealNumElementsN, double errorRateP) {
 		this(idealNumElementsN, errorRateP, null);
 	}
 	
 	public BloomFilter(long idealNumElementsN, double errorRateP, IBloomFilterProbeGenerator probeGenerator) {
-		this(idealNumElementsN, errorRateP, probeGenerator, null);
+		this(idealNumElementsN, errorRateP, probeGenerator, Layout.STANDARD, null);
 	}
 	
 	public BloomFilter(long idealNumElementsN, double errorRateP, IBloomFilterProbeGenerator probeGenerator, long[] data) {
+		this(idealNumElementsN, errorRateP, probeGenerator, Layout.STANDARD, data);
+	}
+	
+	public BloomFilter(long idealNumElementsN, double errorRateP, IBloomFilterProbeGenerator probeGenerator, Layout layout) {
+		this(idealNumElementsN, errorRateP, probeGenerator, layout, null);
+	}
+	
+	public BloomFilter(long idealNumElementsN, double errorRateP, IBloomFilterProbeGenerator probeGenerator, Layout layout, long[] data) {
+		this(idealNumElementsN, errorRateP, probeGenerator, layout, data, false);
+	}
+	
+	private BloomFilter(long idealNumElementsN, double errorRateP, IBloomFilterProbeGenerator probeGenerator, Layout layout, long[] data, boolean packed) {
 		if(idealNumElementsN <= 0){
 			throw new IllegalArgumentException("idealNumElementsN must be > 0");
 		}
@@ -53,13 +115,18 @@ public class BloomFilter {
 		
 		this.idealNumElementsN = idealNumElementsN;
 		this.errorRateP = errorRateP;
+		this.layout = layout != null ? layout : Layout.STANDARD;
 		
-		this.numBitsM = BloomFilter.calculateNumBitsM(
+		int standardNumBitsM = BloomFilter.calculateNumBitsM(
 			this.idealNumElementsN, this.errorRateP);
 		
 		this.numProbesK = BloomFilter.calculateNumProbesK(
-			this.idealNumElementsN, this.numBitsM);
+			this.idealNumElementsN, standardNumBitsM);
+		
+		this.numBitsM = BloomFilter.calculateNumBitsM(
+			this.idealNumElementsN, this.errorRateP, this.layout);
 		
+		this.numWireWords = BloomFilter.calculateNumWireWords(this.numBitsM);
 		this.numWords = BloomFilter.calculateNumWords(this.numBitsM);
 		
 		this.probeGenerator = (
@@ -67,13 +134,114 @@ public class BloomFilter {
 						probeGenerator : 
 						new MurmurProbeGenerator());
 		
-		this.data = data != null ? data : new long[this.numWords];
+		this.metrics = defaultMetrics;
+		
+		if(data == null && this.numWords >= SPARSE_MIN_WORDS){
+			this.sparseBits = new SparseBits();
+			this.numBitsSet = 0;
+		}
+		else if(data == null){
+			this.data = new long[this.numWords];
+			this.blockVersions = newBlockVersions(this.numWords);
+			this.numBitsSet = 0;
+		}
+		else if(packed){
+			this.setWords(data);
+		}
+		else{
+			this.data = wireToPacked(data, this.numWords);
+			this.blockVersions = newBlockVersions(this.numWords);
+			this.numBitsSet = -1;
+		}
+	}
+	
+	/**
+	 * Wraps words, already in the packed 64 bits per long layout, without
+	 * copying them.
+	 */
+	static BloomFilter withWords(long idealNumElementsN, double errorRateP, IBloomFilterProbeGenerator probeGenerator, Layout layout, long[] words){
+		return new BloomFilter(idealNumElementsN, errorRateP, probeGenerator, layout, words, true);
 	}
 	
+	/**
+	 * @return a copy of the bits in the wire layout: 32 bits per long, as
+	 *         used by toJSON and the Python implementation.
+	 */
 	public long[] getData(){
+		return packedToWire(readWords(), this.numWireWords);
+	}
+	
+	/**
+	 * @return the words themselves. Callers may modify them, so the set bit 
+	 *         count is taken again on its next use.
+	 */
+	long[] getWords(){
+		densify();
+		this.numBitsSet = -1;
 		return this.data;
 	}
 	
+	/**
+	 * @return the words, for reading only: a sparse filter stays sparse and
+	 *         hands out a copy.
+	 */
+	long[] readWords(){
+		return this.data != null ? this.data : this.sparseBits.toWords(this.numWords);
+	}
+	
+	/**
+	 * Starts a change made straight to the words of getWords.
+	 * 
+	 * @return the version to stamp the changed delta blocks with.
+	 */
+	long nextVersion(){
+		return ++this.version;
+	}
+	
+	/**
+	 * Marks the delta block holding word as changed at version. Threads 
+	 * stamping different blocks don't interfere.
+	 */
+	void stampWord(int word, long version){
+		this.blockVersions[word / DELTA_BLOCK_WORDS] = version;
+	}
+	
+	/**
+	 * Makes the bits just loaded the state at version, that of the filter
+	 * they were saved from, so its deltas since then apply here.
+	 */
+	void startAt(long version){
+		if(version < 0){
+			throw new IllegalArgumentException("Invalid BloomFilter version: "+version);
+		}
+		this.version = version;
+		this.minDeltaVersion = version;
+	}
+	
+	void setWords(long[] words){
+		if(words.length != this.numWords){
+			throw new IllegalArgumentException("Mismatched number of words");
+		}
+		this.data = words;
+		this.sparseBits = null;
+		if(this.blockVersions == null){
+			this.blockVersions = newBlockVersions(this.numWords);
+		}
+		this.numBitsSet = -1;
+	}
+	
+	/**
+	 * @return true while the bits are kept as a set of bit numbers rather 
+	 *         than an array of words.
+	 */
+	public boolean isSparse(){
+		return this.data == null;
+	}
+	
+	public IBloomFilterProbeGenerator getProbeGenerator(){
+		return this.probeGenerator;
+	}
+	
 	public long getIdealNumberOfElements(){
 		return this.idealNumElementsN;
 	}
@@ -90,64 +258,485 @@ public class BloomFilter {
 		return this.numBitsM;
 	}
 	
+	public Layout getLayout(){
+		return this.layout;
+	}
+	
+	public IBloomFilterMetrics getMetrics(){
+		return this.metrics;
+	}
+	
+	/**
+	 * @param metrics
+	 *            receives the operations on this filter, null to disable
+	 */
+	public void setMetrics(IBloomFilterMetrics metrics){
+		this.metrics = metrics;
+	}
+	
+	public static IBloomFilterMetrics getDefaultMetrics(){
+		return defaultMetrics;
+	}
+	
+	/**
+	 * Sets the metrics for filters created from now on, including those read
+	 * by fromJSON and readFrom, whose deserialization is reported here too.
+	 */
+	public static void setDefaultMetrics(IBloomFilterMetrics metrics){
+		defaultMetrics = metrics;
+	}
+	
 	public void add(String key){		
-		BigInteger[] probes = this.probeGenerator.getProbes(this.numProbesK, this.numBitsM, key);		
-		for(BigInteger bitno : probes){
-			BigInteger[] dm = divmod(bitno, BigInteger.valueOf(32));
-			BigInteger wordno = dm[0];
-			BigInteger bitWithinWordno = dm[1];			
-			BigInteger mask = BigInteger.valueOf(1).shiftLeft(bitWithinWordno.intValue());	
-			
-			int index = wordno.intValue();
-			long maskVal = mask.longValue();
-			
-			this.data[index] |= maskVal;
-		}
+		long start = startTimer();
+		this.probeGenerator.forEachProbe(this.numProbesK, this.numBitsM, key, setConsumer());
+		added(1, start);
+	}
+	
+	/**
+	 * The key overloads add the same bits as the String holding the same 
+	 * text: byte keys are read as UTF-8 and long keys as their decimal 
+	 * representation.
+	 */
+	public void add(CharSequence key){
+		long start = startTimer();
+		this.probeGenerator.forEachProbe(this.numProbesK, this.numBitsM, key, setConsumer());
+		added(1, start);
 	}
 	
+	public void add(byte[] key){
+		add(key, 0, key.length);
+	}
+	
+	public void add(byte[] key, int offset, int length){
+		long start = startTimer();
+		this.probeGenerator.forEachProbe(this.numProbesK, this.numBitsM, key, offset, length, setConsumer());
+		added(1, start);
+	}
+	
+	/**
+	 * Adds the bytes between the position and the limit of key, leaving its
+	 * position unchanged.
+	 */
+	public void add(ByteBuffer key){
+		long start = startTimer();
+		this.probeGenerator.forEachProbe(this.numProbesK, this.numBitsM, key, setConsumer());
+		added(1, start);
+	}
+	
+	public void add(long key){
+		long start = startTimer();
+		this.probeGenerator.forEachProbe(this.numProbesK, this.numBitsM, key, setConsumer());
+		added(1, start);
+	}
+	
+	/**
+	 * Removes all keys. A dense filter keeps its words and zeroes them in
+	 * place, so reusing it allocates nothing.
+	 */
+	public void clear(){
+		if(this.data != null){
+			Arrays.fill(this.data, 0);
+		}
+		else{
+			this.sparseBits = new SparseBits();
+		}
+		this.numBitsSet = 0;
+		//Deltas only set bits, so no delta can lead up to this state
+		this.minDeltaVersion = ++this.version;
+	}
+
 	public boolean matchTemplate(BloomFilter bfilter){
 		return (
 			this.numBitsM == bfilter.numBitsM && 
-			this.numProbesK == bfilter.numProbesK);
+			this.numProbesK == bfilter.numProbesK &&
+			this.layout == bfilter.layout);
 	}
 	
 	public void union(BloomFilter bfilter){
-		if(!this.matchTemplate(bfilter)){
-			throw new IllegalArgumentException("Mismatched bloom filters");
+		unionAll(bfilter);
+	}
+	
+	/**
+	 * ORs all of bfilters into this filter in place, in one pass over 
+	 * memory: each chunk of MERGE_CHUNK_WORDS words takes in the same chunk 
+	 * of every filter while it is in cache. The set bits are counted on the
+	 * way, so the statistics come without another pass.
+	 */
+	public void unionAll(BloomFilter... bfilters){
+		for(BloomFilter bfilter : bfilters){
+			if(!this.matchTemplate(bfilter)){
+				throw new IllegalArgumentException("Mismatched bloom filters");
+			}
 		}
-		long[] newData = new long[this.data.length];
-		for(int i = 0; i < newData.length; i++){
-			newData[i] = this.data[i] | bfilter.data[i];
+		List<long[]> sources = new ArrayList<long[]>(bfilters.length);
+		for(BloomFilter bfilter : bfilters){
+			if(bfilter.data == null){
+				for(int bitno : bfilter.sparseBits.toSortedArray()){
+					setBit(bitno);
+				}
+			}
+			else{
+				sources.add(bfilter.data);
+			}
+		}
+		if(!sources.isEmpty()){
+			densify();
+			long[] data = this.data;
+			long[] before = new long[Math.min(MERGE_CHUNK_WORDS, this.numWords)];
+			long newVersion = this.version + 1;
+			long bitsSet = 0;
+			for(int start = 0; start < this.numWords; start += MERGE_CHUNK_WORDS){
+				int end = Math.min(this.numWords, start + MERGE_CHUNK_WORDS);
+				System.arraycopy(data, start, before, 0, end - start);
+				for(long[] source : sources){
+					//Simple enough for the JIT to unroll and vectorize
+					for(int i = start; i < end; i++){
+						data[i] |= source[i];
+					}
+				}
+				for(int i = start; i < end; i++){
+					long word = data[i];
+					bitsSet += Long.bitCount(word);
+					if(word != before[i - start]){
+						this.blockVersions[i / DELTA_BLOCK_WORDS] = newVersion;
+						this.version = newVersion;
+					}
+				}
+			}
+			this.numBitsSet = bitsSet;
+		}
+		if(this.metrics != null){
+			for(int i = 0; i < bfilters.length; i++){
+				this.metrics.unioned();
+			}
 		}
-		this.data = newData;
 	}
 	
 	public void intersection(BloomFilter bfilter){
+		intersectAll(bfilter);
+	}
+	
+	/**
+	 * ANDs all of bfilters into this filter in place, in one pass over
+	 * memory like unionAll.
+	 */
+	public void intersectAll(BloomFilter... bfilters){
+		boolean sparse = this.data == null;
+		for(BloomFilter bfilter : bfilters){
+			if(!this.matchTemplate(bfilter)){
+				throw new IllegalArgumentException("Mismatched bloom filters");
+			}
+			sparse |= bfilter.data == null;
+		}
+		if(sparse){
+			//The result holds no more bits than a sparse filter, so it is
+			//taken from the bits of one
+			for(BloomFilter bfilter : bfilters){
+				intersectSparse(bfilter);
+			}
+		}
+		else{
+			long[] data = this.data;
+			long bitsSet = 0;
+			for(int start = 0; start < this.numWords; start += MERGE_CHUNK_WORDS){
+				int end = Math.min(this.numWords, start + MERGE_CHUNK_WORDS);
+				for(BloomFilter bfilter : bfilters){
+					long[] source = bfilter.data;
+					for(int i = start; i < end; i++){
+						data[i] &= source[i];
+					}
+				}
+				for(int i = start; i < end; i++){
+					bitsSet += Long.bitCount(data[i]);
+				}
+			}
+			this.numBitsSet = bitsSet;
+		}
+		//Deltas only set bits, so no delta can lead up to this state
+		this.minDeltaVersion = ++this.version;
+		if(this.metrics != null){
+			for(int i = 0; i < bfilters.length; i++){
+				this.metrics.intersected();
+			}
+		}
+	}
+	
+	private void intersectSparse(BloomFilter bfilter){
+		if(this.data != null && bfilter.data != null){
+			for(int i = 0; i < this.numWords; i++){
+				this.data[i] &= bfilter.data[i];
+			}
+			this.numBitsSet = -1;
+			return;
+		}
+		BloomFilter sparse = this.data == null ? this : bfilter;
+		BloomFilter other = sparse == this ? bfilter : this;
+		SparseBits newBits = new SparseBits();
+		for(int bitno : sparse.sparseBits.toSortedArray()){
+			if(other.testBit(bitno)){
+				newBits.add(bitno);
+			}
+		}
+		this.data = null;
+		this.blockVersions = null;
+		this.sparseBits = newBits;
+		this.numBitsSet = newBits.size();
+	}
+	
+	public Result contains(String key){
+		long start = startTimer();
+		boolean allSet = this.probeGenerator.forEachProbe(this.numProbesK, this.numBitsM, key, testConsumer());
+		return result(allSet, start);
+	}
+	
+	public Result contains(CharSequence key){
+		long start = startTimer();
+		boolean allSet = this.probeGenerator.forEachProbe(this.numProbesK, this.numBitsM, key, testConsumer());
+		return result(allSet, start);
+	}
+	
+	public Result contains(byte[] key){
+		return contains(key, 0, key.length);
+	}
+	
+	public Result contains(byte[] key, int offset, int length){
+		long start = startTimer();
+		boolean allSet = this.probeGenerator.forEachProbe(this.numProbesK, this.numBitsM, key, offset, length, 
+			testConsumer());
+		return result(allSet, start);
+	}
+	
+	public Result contains(ByteBuffer key){
+		long start = startTimer();
+		boolean allSet = this.probeGenerator.forEachProbe(this.numProbesK, this.numBitsM, key, testConsumer());
+		return result(allSet, start);
+	}
+	
+	public Result contains(long key){
+		long start = startTimer();
+		boolean allSet = this.probeGenerator.forEachProbe(this.numProbesK, this.numBitsM, key, testConsumer());
+		return result(allSet, start);
+	}
+	
+	/**
+	 * @return the number of bits set. Kept up to date by add, so this is 
+	 *         cheap except right after union, intersection or loading, when
+	 *         the bits are counted once.
+	 */
+	public long getNumberOfBitsSet(){
+		if(this.numBitsSet < 0){
+			this.numBitsSet = countBits(this.data);
+		}
+		return this.numBitsSet;
+	}
+	
+	public double getFillRatio(){
+		return (double)getNumberOfBitsSet() / this.numBitsM;
+	}
+	
+	/**
+	 * @return the probability that a key that was never added is reported 
+	 *         as MAYBE given the bits set now: fillRatio^k. Unlike 
+	 *         getErrorRate this grows past the configured rate once more 
+	 *         than idealNumElementsN keys are added. For the BLOCKED layout 
+	 *         it is an approximation.
+	 */
+	public double getEffectiveErrorRate(){
+		return Math.pow(getFillRatio(), this.numProbesK);
+	}
+	
+	/**
+	 * @return the estimated number of distinct keys added (Swamidass and 
+	 *         Baldi), or infinity when every bit is set.
+	 */
+	public double estimateNumberOfElements(){
+		return estimateNumElements(getNumberOfBitsSet(), this.numBitsM, this.numProbesK);
+	}
+	
+	/**
+	 * @return the estimated number of distinct keys in this filter or 
+	 *         bfilter, counted from the bits of their union.
+	 */
+	public double estimateUnionSize(BloomFilter bfilter){
 		if(!this.matchTemplate(bfilter)){
 			throw new IllegalArgumentException("Mismatched bloom filters");
 		}
-		long[] newData = new long[this.data.length];
-		for(int i = 0; i < newData.length; i++){
-			newData[i] = this.data[i] & bfilter.data[i];
+		long bitsSet = 0;
+		if(this.data == null || bfilter.data == null){
+			BloomFilter sparse = this.data == null ? this : bfilter;
+			BloomFilter other = sparse == this ? bfilter : this;
+			bitsSet = other.getNumberOfBitsSet();
+			for(int bitno : sparse.sparseBits.toSortedArray()){
+				if(!other.testBit(bitno)){
+					bitsSet++;
+				}
+			}
 		}
-		this.data = newData;
+		else{
+			for(int i = 0; i < this.data.length; i++){
+				bitsSet += Long.bitCount(this.data[i] | bfilter.data[i]);
+			}
+		}
+		return estimateNumElements(bitsSet, this.numBitsM, this.numProbesK);
 	}
 	
-	public Result contains(String key){
-		BigInteger[] probes = this.probeGenerator.getProbes(this.numProbesK, this.numBitsM, key);		
-		for(BigInteger bitno : probes){
-			BigInteger[] dm = divmod(bitno, BigInteger.valueOf(32));
-			BigInteger wordno = dm[0];
-			BigInteger bitWithinWordno = dm[1];			
-			BigInteger mask = BigInteger.valueOf(1).shiftLeft(bitWithinWordno.intValue());	
-			
-			int index = wordno.intValue();
-			long maskVal = mask.longValue();
-			if((this.data[index] & maskVal) == 0){
-				return Result.NO;
+	/**
+	 * @return the estimated number of distinct keys in both this filter and 
+	 *         bfilter: |A| + |B| - |A u B|, never below 0.
+	 */
+	public double estimateIntersectionSize(BloomFilter bfilter){
+		double union = estimateUnionSize(bfilter);
+		double result = this.estimateNumberOfElements() + bfilter.estimateNumberOfElements() - union;
+		return Double.isNaN(result) ? union : Math.max(0, result);
+	}
+	
+	private void setBit(int bitno){
+		if(this.data == null){
+			if(this.sparseBits.add(bitno)){
+				this.version++;
+				this.numBitsSet++;
+				if(this.sparseBits.size() > (this.numWords >>> 4)){
+					densify();
+				}
+			}
+			return;
+		}
+		int index = bitno >>> 6;
+		long word = this.data[index];
+		long mask = 1L << (bitno & 63);
+		if((word & mask) == 0){
+			this.data[index] = word | mask;
+			this.blockVersions[index / DELTA_BLOCK_WORDS] = ++this.version;
+			if(this.numBitsSet >= 0){
+				this.numBitsSet++;
 			}
 		}
-		return Result.MAYBE;
+	}
+	
+	private boolean testBit(int bitno){
+		long[] data = this.data;
+		if(data == null){
+			return this.sparseBits.contains(bitno);
+		}
+		return (data[bitno >>> 6] & (1L << (bitno & 63))) != 0;
+	}
+	
+	/**
+	 * Moves the bits of a sparse filter into words. Sparse filters turn dense
+	 * once they hold more than one bit per 16 words, and whenever the words
+	 * themselves are needed. The blocks holding bits set 
+	 * while sparse all take the current version, so deltas stay complete.
+	 */
+	private void densify(){
+		if(this.data != null){
+			return;
+		}
+		this.data = this.sparseBits.toWords(this.numWords);
+		this.sparseBits = null;
+		this.blockVersions = newBlockVersions(this.numWords);
+		if(this.version > 0){
+			for(int i = 0; i < this.numWords; i++){
+				if(this.data[i] != 0){
+					this.blockVersions[i / DELTA_BLOCK_WORDS] = this.version;
+				}
+			}
+		}
+	}
+	
+	private static long[] newBlockVersions(int numWords){
+		return new long[(numWords + DELTA_BLOCK_WORDS - 1) / DELTA_BLOCK_WORDS];
+	}
+	
+	private long startTimer(){
+		return this.metrics != null ? this.metrics.startTimer() : 0;
+	}
+	
+	private void added(int numKeys, long start){
+		if(this.metrics != null){
+			this.metrics.added(numKeys, start);
+		}
+	}
+	
+	private Result result(boolean allSet, long start){
+		if(this.metrics != null){
+			this.metrics.contained(allSet ? 0 : 1, allSet ? 1 : 0, start);
+		}
+		return allSet ? Result.MAYBE : Result.NO;
+	}
+	
+	//Blocked consumers keep per key state, so every call gets its own and
+	//contains stays safe to call from several threads
+	private IBloomFilterProbeConsumer setConsumer(){
+		return this.layout == Layout.BLOCKED ? new BlockedProbeConsumer(true) : this.setBitConsumer;
+	}
+	
+	private IBloomFilterProbeConsumer testConsumer(){
+		return this.layout == Layout.BLOCKED ? new BlockedProbeConsumer(false) : this.testBitConsumer;
+	}
+	
+	/**
+	 * Adds keys in slices of BATCH_KEYS: all probes of a slice are computed 
+	 * first and then applied in bit order, so the words are walked from low 
+	 * to high instead of at random.
+	 */
+	public void addAll(Collection<String> keys){
+		long start = startTimer();
+		int[] bitnos = new int[Math.min(keys.size(), BATCH_KEYS) * this.numProbesK];
+		ProbeCollector collector = new ProbeCollector();
+		Iterator<String> it = keys.iterator();
+		while(it.hasNext()){
+			collector.reset(bitnos.length);
+			for(int i = 0; i < BATCH_KEYS && it.hasNext(); i++){
+				collector.collect(it.next(), i);
+			}
+			int count = collector.count;
+			for(int i = 0; i < count; i++){
+				bitnos[i] = (int)(collector.probes[i] >>> 32);
+			}
+			Arrays.sort(bitnos, 0, count);
+			for(int i = 0; i < count; i++){
+				setBit(bitnos[i]);
+			}
+		}
+		added(keys.size(), start);
+	}
+	
+	public BitSet containsAll(String[] keys){
+		return containsAll(Arrays.asList(keys));
+	}
+	
+	/**
+	 * Batch variant of contains, probing in bit order like addAll.
+	 * 
+	 * @return a BitSet with bit i set when keys.get(i) is a MAYBE
+	 */
+	public BitSet containsAll(List<String> keys){
+		long startNanos = startTimer();
+		int size = keys.size();
+		BitSet result = new BitSet(size);
+		result.set(0, size);
+		ProbeCollector collector = new ProbeCollector();
+		for(int start = 0; start < size; start += BATCH_KEYS){
+			int end = Math.min(size, start + BATCH_KEYS);
+			collector.reset((end - start) * this.numProbesK);
+			for(int i = start; i < end; i++){
+				collector.collect(keys.get(i), i);
+			}
+			//Sorting by bit number; the key index rides along in the low half
+			long[] probes = collector.probes;
+			Arrays.sort(probes, 0, collector.count);
+			for(int i = 0; i < collector.count; i++){
+				int bitno = (int)(probes[i] >>> 32);
+				if(!testBit(bitno)){
+					result.clear((int)probes[i]);
+				}
+			}
+		}
+		if(this.metrics != null){
+			int numMaybe = result.cardinality();
+			this.metrics.contained(size - numMaybe, numMaybe, startNanos);
+		}
+		return result;
 	}
 	
 	public String toJSON() throws JSONException, IOException{
@@ -155,7 +744,8 @@ public class BloomFilter {
 	}
 	
 	public String toJSON(boolean compressed) throws JSONException, IOException{		
-		byte[] dataBytes = longArrayToByteArray(data);
+		long start = System.nanoTime();
+		byte[] dataBytes = packedToWireBytes(readWords(), this.numWireWords);
 		
 		String dataHash = makeHash(dataBytes);
 		
@@ -165,6 +755,125 @@ public class BloomFilter {
 		byte[] b64bytes = Base64.encodeBase64(dataBytes);	
 		String b64data = new String(b64bytes);
 		
+		String result = toJSONObject(compressed, b64data, dataHash).toString();
+		if(this.metrics != null){
+			this.metrics.serialized(result.length(), start);
+		}
+		return result;
+	}
+	
+	/**
+	 * Streaming variant of toJSON: writes the exact same text, but pipes the
+	 * words through the digest, Deflater and Base64 encoder in small chunks 
+	 * instead of materializing the payload.
+	 */
+	public void toJSON(Writer writer) throws JSONException, IOException{
+		toJSON(writer, true);
+	}
+	
+	public void toJSON(Writer writer, boolean compressed) throws JSONException, IOException{
+		if(this.metrics == null){
+			StreamingJSON.write(this, writer, compressed);
+			return;
+		}
+		long start = System.nanoTime();
+		CountingStreams.CountingWriter counter = new CountingStreams.CountingWriter(writer);
+		StreamingJSON.write(this, counter, compressed);
+		this.metrics.serialized(counter.count, start);
+	}
+	
+	/**
+	 * Like toJSON(compressed), but writes a sparse filter as its bit numbers,
+	 * in a "bits" field instead of "data": the gaps between the sorted bit
+	 * numbers as unsigned LEB128 varints, hashed and optionally deflated like
+	 * the words. fromJSON reads both forms, the Python implementation only
+	 * the dense one.
+	 */
+	public String toJSON(boolean compressed, boolean allowSparse) throws JSONException, IOException{
+		if(!allowSparse || this.data != null){
+			return toJSON(compressed);
+		}
+		long start = System.nanoTime();
+		byte[] bitsBytes = encodeGaps(this.sparseBits.toSortedArray());
+		
+		String bitsHash = makeHash(bitsBytes);
+		
+		if(compressed){
+			bitsBytes = zlibCompress(bitsBytes);
+		}
+		
+		JSONObject json = toJSONObject(compressed, "", bitsHash);
+		json.remove("data");
+		json.put("bits", new String(Base64.encodeBase64(bitsBytes)));
+		String result = json.toString();
+		if(this.metrics != null){
+			this.metrics.serialized(result.length(), start);
+		}
+		return result;
+	}
+	
+	/**
+	 * Reads the "bits" of a sparse toJSON into a new, sparse if possible,
+	 * filter.
+	 */
+	static BloomFilter withSparseBits(long idealNumElementsN, double errorRateP, IBloomFilterProbeGenerator probeGenerator, 
+			Layout layout, boolean compressed, String b64bits, String bitsHash, long version) throws IOException, DataFormatException{
+		byte[] rawbits = Base64.decodeBase64(b64bits);
+		if(compressed){
+			rawbits = zlibDecompress(rawbits);
+		}
+		if(!makeHash(rawbits).equals(bitsHash)){
+			throw new IllegalArgumentException("Data integrity error");
+		}
+		
+		BloomFilter result = new BloomFilter(idealNumElementsN, errorRateP, probeGenerator, layout);
+		long bitno = -1;
+		long gap = 0;
+		int shift = 0;
+		for(byte b : rawbits){
+			gap |= (b & 0x7FL) << shift;
+			shift += 7;
+			if(b < 0){
+				if(shift > 35){
+					throw new IllegalArgumentException("Invalid BloomFilter bits");
+				}
+				continue;
+			}
+			bitno += gap;
+			if(gap == 0 || bitno >= result.numBitsM){
+				throw new IllegalArgumentException("Invalid BloomFilter bits");
+			}
+			result.setBit((int)bitno);
+			gap = 0;
+			shift = 0;
+		}
+		if(shift != 0){
+			throw new IllegalArgumentException("Invalid BloomFilter bits");
+		}
+		//Loaded bits are the starting state, like those of fromJSON
+		if(result.blockVersions != null){
+			Arrays.fill(result.blockVersions, 0);
+		}
+		result.startAt(version);
+		return result;
+	}
+	
+	private static byte[] encodeGaps(int[] sortedBitnos){
+		ByteArrayOutputStream out = new ByteArrayOutputStream(sortedBitnos.length * 2);
+		int previous = -1;
+		for(int bitno : sortedBitnos){
+			int gap = bitno - previous;
+			while((gap & ~0x7F) != 0){
+				out.write((gap & 0x7F) | 0x80);
+				gap >>>= 7;
+			}
+			out.write(gap);
+			previous = bitno;
+		}
+		return out.toByteArray();
+	}
+	
+	JSONObject toJSONObject(boolean compressed, String b64data, String dataHash){
 		String gen = this.probeGenerator.getName();
 		
 		JSONObject result = new JSONObject();		
@@ -175,21 +884,49 @@ public class BloomFilter {
 		result.put("data", b64data);
 		result.put("hash", dataHash);
 		result.put("gen", gen);
-		return result.toString();
+		if(this.layout != Layout.STANDARD){
+			result.put("layout", this.layout.name());
+		}
+		//Left out at 0, so fresh filters match the Python implementation
+		if(this.version != 0){
+			result.put("version", this.version);
+		}
+		return result;
+	}
+	
+	/**
+	 * Streaming variant of fromJSON(String). When n, p and zlib precede the
+	 * data, as in the Python library's output, the words are decoded 
+	 * straight into the new filter.
+	 */
+	public static BloomFilter fromJSON(Reader reader) throws IOException, DataFormatException{
+		IBloomFilterMetrics metrics = defaultMetrics;
+		if(metrics == null){
+			return StreamingJSON.read(reader);
+		}
+		long start = System.nanoTime();
+		CountingStreams.CountingReader counter = new CountingStreams.CountingReader(reader);
+		BloomFilter result = StreamingJSON.read(counter);
+		metrics.deserialized(counter.count, start);
+		return result;
 	}
 	
 	public static BloomFilter fromJSON(String jsonString) throws IOException, DataFormatException{
+		long start = System.nanoTime();
 		JSONObject data = new JSONObject(jsonString);
 		String version = data.optString("v", null);		
-		long idealNumElementsN = data.optInt("n", -1);
+		long idealNumElementsN = data.optLong("n", -1);
 		double errorRateP = data.optDouble("p", -1);
 		boolean compressed = data.optBoolean("zlib");
 		String b64data = data.optString("data", null);
+		String b64bits = data.optString("bits", null);
 		String dataHash = data.optString("hash", null);
 		String gen = data.optString("gen", null);
+		Layout layout = Layout.valueOf(data.optString("layout", Layout.STANDARD.name()));
+		long filterVersion = data.optLong("version", 0);
 		
 		if(version == null || idealNumElementsN == -1 || errorRateP == -1 || 
-				b64data == null || dataHash == null || gen == null){
+				(b64data == null && b64bits == null) || dataHash == null || gen == null){
 			throw new IllegalArgumentException("Invalid BloomFilter JSON structure");
 		}
 		
@@ -197,6 +934,15 @@ public class BloomFilter {
 			throw new IllegalArgumentException("Incompatible BloomFilter version");
 		}
 		
+		if(b64data == null){
+			BloomFilter newBloomFilter = withSparseBits(idealNumElementsN, errorRateP, 
+				BloomFilterProbeGenerators.getProbeGenerator(gen), layout, compressed, b64bits, dataHash, filterVersion);
+			if(newBloomFilter.metrics != null){
+				newBloomFilter.metrics.deserialized(jsonString.length(), start);
+			}
+			return newBloomFilter;
+		}
+		
 		byte[] rawdata = Base64.decodeBase64(b64data);
 		if(compressed){
 			rawdata = zlibDecompress(rawdata);
@@ -210,18 +956,282 @@ public class BloomFilter {
 			throw new IllegalArgumentException("Data integrity error");
 		}
 		
-		long[] longdata	= byteArrayToLongArray(rawdata);
-		
 		IBloomFilterProbeGenerator probeGenerator = 
 			BloomFilterProbeGenerators.getProbeGenerator(gen);
 		
-		BloomFilter newBloomFilter = new BloomFilter(
-			idealNumElementsN, errorRateP, probeGenerator);
-		newBloomFilter.data = longdata;
+		int numWords = BloomFilter.calculateNumWords(
+			BloomFilter.calculateNumBitsM(idealNumElementsN, errorRateP, layout));
+		BloomFilter newBloomFilter = BloomFilter.withWords(idealNumElementsN, errorRateP, 
+			probeGenerator, layout, wireBytesToPacked(rawdata, numWords));
+		newBloomFilter.startAt(filterVersion);
+		if(newBloomFilter.metrics != null){
+			newBloomFilter.metrics.deserialized(jsonString.length(), start);
+		}
 		
 		return newBloomFilter;
 	}
 	
+	/**
+	 * @return the number of changes made to the bits since this filter was
+	 *         created. toJSON keeps the version, so a filter loaded from it
+	 *         continues at the version it was saved at. Deltas are taken
+	 *         since such a version.
+	 */
+	public long getVersion(){
+		return this.version;
+	}
+	
+	public String toDelta(long sinceVersion) throws JSONException, IOException{
+		return toDelta(sinceVersion, true);
+	}
+	
+	/**
+	 * Encodes the blocks of DELTA_BLOCK_WORDS words changed after 
+	 * sinceVersion, for applyDelta on replicas of this filter. A replica 
+	 * starts out as a copy: loaded from toJSON it is at the version of this
+	 * filter when saved, an empty filter is at version 0.
+	 * Only the block versions are scanned, so the cost follows the number of
+	 * changed blocks rather than the size of the filter.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             when sinceVersion precedes an intersection or clear, which 
+	 *             clear bits a delta can't clear; replicas have to be copied
+	 *             again from toJSON, and take deltas since getVersion from
+	 *             then on.
+	 */
+	public String toDelta(long sinceVersion, boolean compressed) throws JSONException, IOException{
+		long start = System.nanoTime();
+		if(sinceVersion < this.minDeltaVersion){
+			throw new IllegalArgumentException("No delta since version "+sinceVersion+
+				", the filter was cleared or intersected at version "+this.minDeltaVersion);
+		}
+		if(sinceVersion > this.version){
+			throw new IllegalArgumentException("Unknown version: "+sinceVersion);
+		}
+		byte[] dataBytes = this.data != null ? denseDelta(sinceVersion) : sparseDelta(sinceVersion);
+		
+		String dataHash = makeHash(dataBytes);
+		
+		if(compressed){
+			dataBytes = zlibCompress(dataBytes);
+		}
+		
+		JSONObject result = new JSONObject();
+		result.put("v", BloomFilter.VERSION);
+		result.put("m", this.numBitsM);
+		result.put("k", this.numProbesK);
+		result.put("layout", this.layout.name());
+		result.put("gen", this.probeGenerator.getName());
+		result.put("since", sinceVersion);
+		result.put("version", this.version);
+		result.put("zlib", compressed);
+		result.put("data", new String(Base64.encodeBase64(dataBytes)));
+		result.put("hash", dataHash);
+		String json = result.toString();
+		if(this.metrics != null){
+			this.metrics.serialized(json.length(), start);
+		}
+		return json;
+	}
+	
+	//Every block: its index, then its words
+	private byte[] denseDelta(long sinceVersion){
+		int numBlocks = 0;
+		for(long blockVersion : this.blockVersions){
+			if(blockVersion > sinceVersion){
+				numBlocks++;
+			}
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(numBlocks * (4 + DELTA_BLOCK_WORDS * 8)).order(ByteOrder.LITTLE_ENDIAN);
+		for(int block = 0; block < this.blockVersions.length; block++){
+			if(this.blockVersions[block] > sinceVersion){
+				buffer.putInt(block);
+				int end = Math.min(this.numWords, (block + 1) * DELTA_BLOCK_WORDS);
+				for(int i = block * DELTA_BLOCK_WORDS; i < end; i++){
+					buffer.putLong(this.data[i]);
+				}
+			}
+		}
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+	
+	/**
+	 * Same layout as denseDelta, straight from the set bits so the filter 
+	 * stays sparse. Every block holding a bit counts as changed at the 
+	 * current version, as densify would stamp it.
+	 */
+	private byte[] sparseDelta(long sinceVersion){
+		int[] bitnos = sinceVersion < this.version ? this.sparseBits.toSortedArray() : new int[0];
+		int blockBits = DELTA_BLOCK_WORDS * 64;
+		int numBlocks = 0;
+		for(int i = 0; i < bitnos.length; i++){
+			if(i == 0 || bitnos[i] / blockBits != bitnos[i - 1] / blockBits){
+				numBlocks++;
+			}
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(numBlocks * (4 + DELTA_BLOCK_WORDS * 8)).order(ByteOrder.LITTLE_ENDIAN);
+		long[] words = new long[DELTA_BLOCK_WORDS];
+		for(int i = 0; i < bitnos.length; ){
+			int block = bitnos[i] / blockBits;
+			Arrays.fill(words, 0);
+			for(; i < bitnos.length && bitnos[i] / blockBits == block; i++){
+				int bitno = bitnos[i] - block * blockBits;
+				words[bitno >>> 6] |= 1L << (bitno & 63);
+			}
+			buffer.putInt(block);
+			int numBlockWords = Math.min(this.numWords - block * DELTA_BLOCK_WORDS, DELTA_BLOCK_WORDS);
+			for(int j = 0; j < numBlockWords; j++){
+				buffer.putLong(words[j]);
+			}
+		}
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+	
+	/**
+	 * ORs in a delta made by toDelta on a filter with the same template, and
+	 * takes over its version. Deltas may overlap, arrive twice or skip 
+	 * versions, as long as each starts at or before the version this filter
+	 * is at. A replica should not be added to itself, as its version then 
+	 * no longer matches the source.
+	 */
+	public void applyDelta(String delta) throws IOException, DataFormatException{
+		long start = System.nanoTime();
+		JSONObject json = new JSONObject(delta);
+		String version = json.optString("v", null);
+		int numBitsM = json.optInt("m", -1);
+		int numProbesK = json.optInt("k", -1);
+		String layout = json.optString("layout", null);
+		String gen = json.optString("gen", null);
+		long sinceVersion = json.optLong("since", -1);
+		long toVersion = json.optLong("version", -1);
+		boolean compressed = json.optBoolean("zlib");
+		String b64data = json.optString("data", null);
+		String dataHash = json.optString("hash", null);
+		
+		if(version == null || layout == null || gen == null || sinceVersion < 0 || toVersion < sinceVersion || 
+				b64data == null || dataHash == null){
+			throw new IllegalArgumentException("Invalid BloomFilter delta structure");
+		}
+		if(!version.equals(BloomFilter.VERSION)){
+			throw new IllegalArgumentException("Incompatible BloomFilter version");
+		}
+		if(numBitsM != this.numBitsM || numProbesK != this.numProbesK || !layout.equals(this.layout.name()) || 
+				!gen.equals(this.probeGenerator.getName())){
+			throw new IllegalArgumentException("Mismatched bloom filters");
+		}
+		if(sinceVersion > this.version){
+			throw new IllegalArgumentException("Delta since version "+sinceVersion+
+				" does not apply to version "+this.version);
+		}
+		
+		byte[] rawdata = Base64.decodeBase64(b64data);
+		if(compressed){
+			rawdata = zlibDecompress(rawdata);
+		}
+		if(!makeHash(rawdata).equals(dataHash)){
+			throw new IllegalArgumentException("Data integrity error");
+		}
+		
+		densify();
+		ByteBuffer buffer = ByteBuffer.wrap(rawdata).order(ByteOrder.LITTLE_ENDIAN);
+		while(buffer.hasRemaining()){
+			int block = buffer.remaining() >= 4 ? buffer.getInt() : -1;
+			if(block < 0 || block >= this.blockVersions.length){
+				throw new IllegalArgumentException("Invalid BloomFilter delta block");
+			}
+			int first = block * DELTA_BLOCK_WORDS;
+			int end = Math.min(this.numWords, first + DELTA_BLOCK_WORDS);
+			if(buffer.remaining() < (end - first) * 8){
+				throw new IllegalArgumentException("Invalid BloomFilter delta block");
+			}
+			for(int i = first; i < end; i++){
+				long added = buffer.getLong() & ~this.data[i];
+				if(added != 0){
+					this.data[i] |= added;
+					this.blockVersions[block] = Math.max(this.blockVersions[block], toVersion);
+					if(this.numBitsSet >= 0){
+						this.numBitsSet += Long.bitCount(added);
+					}
+				}
+			}
+		}
+		this.version = Math.max(this.version, toVersion);
+		if(this.metrics != null){
+			this.metrics.deserialized(delta.length(), start);
+		}
+	}
+	
+	public void writeTo(OutputStream out) throws IOException{
+		writeTo(Channels.newChannel(out), false);
+	}
+	
+	public void writeTo(OutputStream out, boolean compressed) throws IOException{
+		writeTo(Channels.newChannel(out), compressed);
+	}
+	
+	public void writeTo(WritableByteChannel channel) throws IOException{
+		writeTo(channel, false);
+	}
+	
+	/**
+	 * Streams the filter in the versioned little endian BinaryFormat: the 
+	 * words go out in 1 MB chunks, each with its own CRC32 and optionally 
+	 * deflated, without copying the whole filter.
+	 */
+	public void writeTo(WritableByteChannel channel, boolean compressed) throws IOException{
+		long start = System.nanoTime();
+		IBloomFilterMetrics metrics = this.metrics;
+		CountingStreams.CountingWritableChannel counter = null;
+		if(metrics != null){
+			channel = counter = new CountingStreams.CountingWritableChannel(channel);
+		}
+		BinaryFormat.Header header = new BinaryFormat.Header();
+		header.flags = compressed ? BinaryFormat.FLAG_COMPRESSED : 0;
+		header.layout = (byte)this.layout.ordinal();
+		header.idealNumElementsN = this.idealNumElementsN;
+		header.errorRateP = this.errorRateP;
+		header.numProbesK = this.numProbesK;
+		header.numBitsM = this.numBitsM;
+		header.gen = this.probeGenerator.getName();
+		BinaryFormat.writeHeader(channel, header);
+		BinaryFormat.writeWords(channel, new long[][]{readWords()}, this.numWords, this.numWords, compressed);
+		if(metrics != null){
+			metrics.serialized(counter.count, start);
+		}
+	}
+	
+	public static BloomFilter readFrom(InputStream in) throws IOException{
+		return readFrom(Channels.newChannel(in));
+	}
+	
+	public static BloomFilter readFrom(ReadableByteChannel channel) throws IOException{
+		long start = System.nanoTime();
+		IBloomFilterMetrics metrics = defaultMetrics;
+		CountingStreams.CountingReadableChannel counter = null;
+		if(metrics != null){
+			channel = counter = new CountingStreams.CountingReadableChannel(channel);
+		}
+		BinaryFormat.Header header = BinaryFormat.readHeader(channel);
+		if(header.layout < 0 || header.layout >= Layout.values().length){
+			throw new IllegalArgumentException("Unsupported layout: "+header.layout);
+		}
+		
+		IBloomFilterProbeGenerator probeGenerator = 
+			BloomFilterProbeGenerators.getProbeGenerator(header.gen);
+		
+		BloomFilter newBloomFilter = new BloomFilter(header.idealNumElementsN, header.errorRateP, 
+			probeGenerator, Layout.values()[header.layout]);
+		if(newBloomFilter.numBitsM != header.numBitsM || newBloomFilter.numProbesK != header.numProbesK){
+			throw new IllegalArgumentException("Mismatched bloom filter sizing");
+		}
+		BinaryFormat.readWords(channel, new long[][]{newBloomFilter.getWords()}, newBloomFilter.numWords, 
+			newBloomFilter.numWords, (header.flags & BinaryFormat.FLAG_COMPRESSED) != 0);
+		if(metrics != null){
+			metrics.deserialized(counter.count, start);
+		}
+		return newBloomFilter;
+	}
+	
 	private static String makeHash(byte[] bytes){
 		return DigestUtils.sha256Hex(bytes);
 	}
@@ -234,53 +1244,163 @@ public class BloomFilter {
 		//return DigestUtils.
 	}
 	
-	private static BigInteger[] divmod(BigInteger x, BigInteger y){
-		//Return the tuple ((x-x%y)/y, x%y).  Invariant: div*y + mod == x.				
-		BigInteger a = (x.subtract(x.mod(y))).divide(y);
-		BigInteger b = x.mod(y);		
-		return new BigInteger[]{a, b};		
+	private static long[] packedToWire(long[] packed, int numWireWords){
+		long[] result = new long[numWireWords];
+		for(int i = 0; i < numWireWords; i++){
+			result[i] = (packed[i >>> 1] >>> ((i & 1) << 5)) & 0xFFFFFFFFL;
+		}
+		return result;
 	}
 	
-	private static byte[] longArrayToByteArray(long[] data){
-		byte[] result = new byte[data.length * 8];		
-		byte[] temp;
-		for(int i = 0; i < data.length; i++){
-			temp = ByteBuffer.allocate(8).putLong(data[i]).array();
-			System.arraycopy(temp, 0, result, i*8, 8);
-		}		
+	private static long[] wireToPacked(long[] wire, int numWords){
+		long[] result = new long[numWords];
+		int length = Math.min(wire.length, numWords * 2);
+		for(int i = 0; i < length; i++){
+			result[i >>> 1] |= (wire[i] & 0xFFFFFFFFL) << ((i & 1) << 5);
+		}
 		return result;
 	}
 	
-	private static long[] byteArrayToLongArray(byte[] data){
-		long[] result = new long[data.length / 8];		
-		byte[] slice = new byte[8];
-		int index = 0;
-		for(int i = 0; i < data.length; i+=8){
-			System.arraycopy(data, i, slice, 0, 8);
-			long nextLong = ByteBuffer.wrap(slice).getLong();
-			result[index] = nextLong;
-			index++;
-		}		
+	//Wire words are big endian 64 bit longs holding 32 bits each
+	private static byte[] packedToWireBytes(long[] packed, int numWireWords){
+		byte[] result = new byte[numWireWords * 8];
+		packedToWireBytes(packed, 0, numWireWords, result);
 		return result;
 	}
 	
-	private static int calculateNumBitsM(long n, double p){
+	/**
+	 * Writes wire words [firstWireWord, firstWireWord + numWireWords) to the 
+	 * start of out.
+	 */
+	static void packedToWireBytes(long[] packed, int firstWireWord, int numWireWords, byte[] out){
+		for(int i = 0; i < numWireWords; i++){
+			int wireWord = firstWireWord + i;
+			int word = (int)(packed[wireWord >>> 1] >>> ((wireWord & 1) << 5));
+			int offset = i * 8;
+			out[offset] = 0;
+			out[offset + 1] = 0;
+			out[offset + 2] = 0;
+			out[offset + 3] = 0;
+			out[offset + 4] = (byte)(word >>> 24);
+			out[offset + 5] = (byte)(word >>> 16);
+			out[offset + 6] = (byte)(word >>> 8);
+			out[offset + 7] = (byte)word;
+		}
+	}
+	
+	private static long[] wireBytesToPacked(byte[] bytes, int numWords){
+		long[] result = new long[numWords];
+		int length = Math.min(bytes.length / 8, numWords * 2);
+		for(int i = 0; i < length; i++){
+			int offset = i * 8 + 4;
+			long word = 
+				((bytes[offset] & 0xFFL) << 24) |
+				((bytes[offset + 1] & 0xFFL) << 16) |
+				((bytes[offset + 2] & 0xFFL) << 8) |
+				(bytes[offset + 3] & 0xFFL);
+			result[i >>> 1] |= word << ((i & 1) << 5);
+		}
+		return result;
+	}
+	
+	static int calculateNumBitsM(long n, double p){
+		long numBitsM = calculateLongNumBitsM(n, p);
+		if(numBitsM > Integer.MAX_VALUE){
+			throw new IllegalArgumentException(
+				"Filter needs "+numBitsM+" bits, use LargeBloomFilter beyond "+Integer.MAX_VALUE);
+		}
+		return (int)numBitsM;
+	}
+	
+	// n = -m / k * ln(1 - X / m) for X bits set
+	static double estimateNumElements(long bitsSet, long m, int k){
+		if(bitsSet >= m){
+			return Double.POSITIVE_INFINITY;
+		}
+		return -(double)m / k * Math.log(1 - (double)bitsSet / m);
+	}
+	
+	static long countBits(long[] words){
+		long result = 0;
+		for(long word : words){
+			result += Long.bitCount(word);
+		}
+		return result;
+	}
+	
+	static int calculateNumBitsM(long n, double p, Layout layout){
+		int standardNumBitsM = calculateNumBitsM(n, p);
+		if(layout != Layout.BLOCKED){
+			return standardNumBitsM;
+		}
+		return calculateNumBlockedBitsM(n, p, standardNumBitsM, calculateNumProbesK(n, standardNumBitsM));
+	}
+	
+	static long calculateLongNumBitsM(long n, double p){
 		double numerator = -1 * n * Math.log(p);
 		double denominator = Math.pow(Math.log(2), 2);
 		double realNumBitsM = numerator / denominator;
-		return (int)Math.ceil(realNumBitsM);
+		return (long)Math.ceil(realNumBitsM);
 	}
 	
-	private static int calculateNumProbesK(long n, int m){
+	static int calculateNumProbesK(long n, long m){
 		double realNumProbesK = (m / n) * Math.log(2);
 		return (int)Math.ceil(realNumProbesK);
 	}
 	
-	private static int calculateNumWords(int m){
+	/**
+	 * Grows m until a blocked filter meets the requested error rate. Keys are
+	 * spread over the blocks unevenly, so a blocked filter needs more bits
+	 * than a standard one for the same p.
+	 * 
+	 * @return m rounded up to a whole number of blocks.
+	 */
+	static int calculateNumBlockedBitsM(long n, double p, int standardNumBitsM, int k){
+		long m = roundUpToBlock(standardNumBitsM);
+		while(calculateBlockedErrorRate(n, m, k) > p){
+			m = roundUpToBlock(m + Math.max(BLOCK_BITS, m / 100));
+		}
+		if(m > Integer.MAX_VALUE - BLOCK_BITS){
+			throw new IllegalArgumentException("Blocked filter too large");
+		}
+		return (int)m;
+	}
+	
+	/**
+	 * The number of keys in a block is Poisson distributed with mean 
+	 * n * BLOCK_BITS / m; within a block the filter behaves like a standard 
+	 * BloomFilter of BLOCK_BITS bits.
+	 */
+	static double calculateBlockedErrorRate(long n, long m, int k){
+		double lambda = (double)n * BLOCK_BITS / m;
+		int maxKeys = (int)Math.ceil(lambda + 10 * Math.sqrt(lambda) + 10);
+		double logLambda = Math.log(lambda);
+		double logProbability = -lambda;
+		double errorRate = 0;
+		for(int i = 0; i <= maxKeys; i++){
+			if(i > 0){
+				logProbability += logLambda - Math.log(i);
+			}
+			double blockErrorRate = Math.pow(
+				1 - Math.pow(1 - 1.0 / BLOCK_BITS, (double)i * k), k);
+			errorRate += Math.exp(logProbability) * blockErrorRate;
+		}
+		return errorRate;
+	}
+	
+	private static long roundUpToBlock(long m){
+		return (m + BLOCK_BITS - 1) / BLOCK_BITS * BLOCK_BITS;
+	}
+	
+	static int calculateNumWireWords(int m){
 		return (int)Math.floor((m + 31) / 32);
 	}
 	
-	private static byte[] zlibCompress(byte[] data) throws IOException {
+	static int calculateNumWords(int m){
+		return (int)(((long)m + 63) / 64);
+	}
+	
+	static byte[] zlibCompress(byte[] data) throws IOException {
 		Deflater deflater = new Deflater();
 		deflater.setInput(data);
 
@@ -304,7 +1424,7 @@ public class BloomFilter {
 		return output;
 	}
 
-	private static byte[] zlibDecompress(byte[] data) throws IOException,
+	static byte[] zlibDecompress(byte[] data) throws IOException,
 			DataFormatException {
 		Inflater inflater = new Inflater();
 		inflater.setInput(data);
@@ -326,6 +1446,75 @@ public class BloomFilter {
 		return output;
 	}
 	
+	private final class BlockedProbeConsumer implements IBloomFilterProbeConsumer {
+		private final boolean set;
+		private int blockStart = -1;
+		
+		public BlockedProbeConsumer(boolean set){
+			this.set = set;
+		}
+		
+		@Override
+		public boolean accept(int bitno) {
+			//The first probe picks the block, every probe picks a bit within it
+			if(this.blockStart < 0){
+				this.blockStart = bitno & ~(BLOCK_BITS - 1);
+			}
+			bitno = this.blockStart | (bitno & (BLOCK_BITS - 1));
+			if(this.set){
+				return setBitConsumer.accept(bitno);
+			}
+			return testBitConsumer.accept(bitno);
+		}
+	}
+	
+	/**
+	 * Records the probes of a batch of keys as (bitno << 32 | key index), 
+	 * with the block mapping of the layout already applied.
+	 */
+	private final class ProbeCollector implements IBloomFilterProbeConsumer {
+		private long[] probes = new long[0];
+		private int count;
+		private long keyIndex;
+		private int blockStart;
+		
+		void reset(int capacity){
+			if(this.probes.length < capacity){
+				this.probes = new long[capacity];
+			}
+			this.count = 0;
+		}
+		
+		void collect(String key, int keyIndex){
+			this.keyIndex = keyIndex;
+			this.blockStart = -1;
+			probeGenerator.forEachProbe(numProbesK, numBitsM, key, this);
+		}
+		
+		@Override
+		public boolean accept(int bitno) {
+			if(layout == Layout.BLOCKED){
+				if(this.blockStart < 0){
+					this.blockStart = bitno & ~(BLOCK_BITS - 1);
+				}
+				bitno = this.blockStart | (bitno & (BLOCK_BITS - 1));
+			}
+			this.probes[this.count++] = ((long)bitno << 32) | this.keyIndex;
+			return true;
+		}
+	}
+	
+	/**
+	 * STANDARD spreads the probes over the whole filter and matches the 
+	 * Python implementation. BLOCKED keeps all probes of a key within one 
+	 * 512 bit (64 byte) block, so a lookup touches a single cache line at 
+	 * the cost of a somewhat larger filter.
+	 */
+	public static enum Layout{
+		STANDARD,
+		BLOCKED
+	}
+	
 	public static enum Result{
 		MAYBE,
 		NO
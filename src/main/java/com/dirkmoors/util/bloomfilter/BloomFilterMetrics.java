@@ -0,0 +1,274 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * IBloomFilterMetrics keeping striped LongAdder counters, so filters on 
+ * many threads can share one instance without contending on a counter.
+ * Every operation is counted, but only one add or contains in 
+ * sampleInterval, picked at random, is timed.
+ * 
+ * Latencies go into histograms with a bucket per power of two, so the 
+ * percentiles are upper bounds, accurate to a factor of two.
+ */
+public class BloomFilterMetrics implements IBloomFilterMetrics, BloomFilterMetricsMBean {
+	public static final int DEFAULT_SAMPLE_INTERVAL = 1024;
+	
+	private final int sampleInterval;
+	private final int sampleMask;
+	
+	private final LongAdder adds = new LongAdder();
+	private final LongAdder containsNo = new LongAdder();
+	private final LongAdder containsMaybe = new LongAdder();
+	private final LongAdder unions = new LongAdder();
+	private final LongAdder intersections = new LongAdder();
+	private final LongAdder serializations = new LongAdder();
+	private final LongAdder serializedBytes = new LongAdder();
+	private final LongAdder serializationNanos = new LongAdder();
+	private final LongAdder deserializations = new LongAdder();
+	private final LongAdder deserializedBytes = new LongAdder();
+	private final LongAdder deserializationNanos = new LongAdder();
+	private final LatencyHistogram addLatency = new LatencyHistogram();
+	private final LatencyHistogram containsLatency = new LatencyHistogram();
+	
+	public BloomFilterMetrics() {
+		this(DEFAULT_SAMPLE_INTERVAL);
+	}
+	
+	/**
+	 * @param sampleInterval
+	 *            power of two, 1 to time every operation
+	 */
+	public BloomFilterMetrics(int sampleInterval) {
+		if(sampleInterval <= 0 || Integer.bitCount(sampleInterval) != 1){
+			throw new IllegalArgumentException("sampleInterval must be a power of two");
+		}
+		this.sampleInterval = sampleInterval;
+		this.sampleMask = sampleInterval - 1;
+	}
+	
+	/**
+	 * Registers this instance with the platform MBeanServer, under
+	 * com.dirkmoors.util.bloomfilter:type=BloomFilterMetrics,name=name.
+	 */
+	public ObjectName register(String name) throws JMException{
+		ObjectName objectName = objectName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+	
+	public void unregister(String name) throws JMException{
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName(name));
+	}
+	
+	@Override
+	public long startTimer() {
+		if((ThreadLocalRandom.current().nextInt() & this.sampleMask) != 0){
+			return 0;
+		}
+		return System.nanoTime();
+	}
+	
+	@Override
+	public void added(int numKeys, long startNanos) {
+		this.adds.add(numKeys);
+		if(startNanos != 0 && numKeys > 0){
+			this.addLatency.record((System.nanoTime() - startNanos) / numKeys);
+		}
+	}
+	
+	@Override
+	public void contained(int numNo, int numMaybe, long startNanos) {
+		if(numNo != 0){
+			this.containsNo.add(numNo);
+		}
+		if(numMaybe != 0){
+			this.containsMaybe.add(numMaybe);
+		}
+		int numKeys = numNo + numMaybe;
+		if(startNanos != 0 && numKeys > 0){
+			this.containsLatency.record((System.nanoTime() - startNanos) / numKeys);
+		}
+	}
+	
+	@Override
+	public void serialized(long numBytes, long startNanos) {
+		this.serializations.increment();
+		this.serializedBytes.add(numBytes);
+		this.serializationNanos.add(System.nanoTime() - startNanos);
+	}
+	
+	@Override
+	public void deserialized(long numBytes, long startNanos) {
+		this.deserializations.increment();
+		this.deserializedBytes.add(numBytes);
+		this.deserializationNanos.add(System.nanoTime() - startNanos);
+	}
+	
+	@Override
+	public void unioned() {
+		this.unions.increment();
+	}
+	
+	@Override
+	public void intersected() {
+		this.intersections.increment();
+	}
+	
+	@Override
+	public long getAdds() {
+		return this.adds.sum();
+	}
+	
+	@Override
+	public long getContainsNo() {
+		return this.containsNo.sum();
+	}
+	
+	@Override
+	public long getContainsMaybe() {
+		return this.containsMaybe.sum();
+	}
+	
+	@Override
+	public long getUnions() {
+		return this.unions.sum();
+	}
+	
+	@Override
+	public long getIntersections() {
+		return this.intersections.sum();
+	}
+	
+	@Override
+	public long getSerializations() {
+		return this.serializations.sum();
+	}
+	
+	@Override
+	public long getSerializedBytes() {
+		return this.serializedBytes.sum();
+	}
+	
+	@Override
+	public long getSerializationNanos() {
+		return this.serializationNanos.sum();
+	}
+	
+	@Override
+	public long getDeserializations() {
+		return this.deserializations.sum();
+	}
+	
+	@Override
+	public long getDeserializedBytes() {
+		return this.deserializedBytes.sum();
+	}
+	
+	@Override
+	public long getDeserializationNanos() {
+		return this.deserializationNanos.sum();
+	}
+	
+	@Override
+	public int getSampleInterval() {
+		return this.sampleInterval;
+	}
+	
+	@Override
+	public long getAddLatencyMedian() {
+		return this.addLatency.percentile(0.5);
+	}
+	
+	@Override
+	public long getAddLatency99thPercentile() {
+		return this.addLatency.percentile(0.99);
+	}
+	
+	@Override
+	public long getContainsLatencyMedian() {
+		return this.containsLatency.percentile(0.5);
+	}
+	
+	@Override
+	public long getContainsLatency99thPercentile() {
+		return this.containsLatency.percentile(0.99);
+	}
+	
+	/**
+	 * Zeroes all counters. Operations running concurrently may or may not be
+	 * counted.
+	 */
+	@Override
+	public void reset() {
+		this.adds.reset();
+		this.containsNo.reset();
+		this.containsMaybe.reset();
+		this.unions.reset();
+		this.intersections.reset();
+		this.serializations.reset();
+		this.serializedBytes.reset();
+		this.serializationNanos.reset();
+		this.deserializations.reset();
+		this.deserializedBytes.reset();
+		this.deserializationNanos.reset();
+		this.addLatency.reset();
+		this.containsLatency.reset();
+	}
+	
+	private static ObjectName objectName(String name) throws JMException{
+		return new ObjectName("com.dirkmoors.util.bloomfilter:type=BloomFilterMetrics,name=" + 
+			ObjectName.quote(name));
+	}
+	
+	/**
+	 * Bucket b counts the values v with 2^(b-1) <= v < 2^b, bucket 0 the 
+	 * values <= 0.
+	 */
+	private static final class LatencyHistogram {
+		private final LongAdder[] buckets = new LongAdder[65];
+		
+		public LatencyHistogram(){
+			for(int i = 0; i < this.buckets.length; i++){
+				this.buckets[i] = new LongAdder();
+			}
+		}
+		
+		public void record(long nanos){
+			this.buckets[nanos <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(nanos)].increment();
+		}
+		
+		/**
+		 * @return the upper bound of the bucket holding the given fraction of
+		 *         the values, 0 when nothing was recorded.
+		 */
+		public long percentile(double fraction){
+			long[] counts = new long[this.buckets.length];
+			long total = 0;
+			for(int i = 0; i < counts.length; i++){
+				counts[i] = this.buckets[i].sum();
+				total += counts[i];
+			}
+			long rank = (long)Math.ceil(total * fraction);
+			long seen = 0;
+			for(int i = 0; i < counts.length; i++){
+				seen += counts[i];
+				if(seen >= rank && seen > 0){
+					return i == 0 ? 0 : i == 64 ? Long.MAX_VALUE : (1L << i) - 1;
+				}
+			}
+			return 0;
+		}
+		
+		public void reset(){
+			for(LongAdder bucket : this.buckets){
+				bucket.reset();
+			}
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.dirkmoors.util.bloomfilter;
+
+/**
+ * JMX view of BloomFilterMetrics. Latencies are in nanoseconds per key,
+ * taken from the sampled operations only.
+ */
+public interface BloomFilterMetricsMBean {
+	public long getAdds();
+	
+	public long getContainsNo();
+	
+	public long getContainsMaybe();
+	
+	public long getUnions();
+	
+	public long getIntersections();
+	
+	public long getSerializations();
+	
+	public long getSerializedBytes();
+	
+	public long getSerializationNanos();
+	
+	public long getDeserializations();
+	
+	public long getDeserializedBytes();
+	
+	public long getDeserializationNanos();
+	
+	public int getSampleInterval();
+	
+	public long getAddLatencyMedian();
+	
+	public long getAddLatency99thPercentile();
+	
+	public long getContainsLatencyMedian();
+	
+	public long getContainsLatency99thPercentile();
+	
+	public void reset();
+}
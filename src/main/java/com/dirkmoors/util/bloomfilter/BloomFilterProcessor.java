@@ -0,0 +1,221 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Flow.Processor that passes on the keys a BloomFilterStage lets through, in
+ * the order they arrive.
+ *
+ * Keys that arrive while a batch is processed are gathered into the next
+ * batch, so batches grow with the load and a lone key is not held back.
+ * At most maxBatchSize keys are requested from upstream ahead of processing,
+ * and more only once a batch has been handed downstream, which blocks while
+ * the subscribers are behind. Batches run on the executor; with more than
+ * one worker a batch is split by key hash, so equal keys always meet in the
+ * same part, and the parts run at once against a stage that isThreadSafe.
+ * Pass an executor of virtual threads to use those.
+ */
+public class BloomFilterProcessor extends SubmissionPublisher<String> implements Flow.Processor<String, String> {
+	private static final int MIN_PART_KEYS = 256;
+
+	private final BloomFilterStage stage;
+	private final int maxBatchSize;
+	private final int numWorkers;
+	private final Executor executor;
+
+	private Flow.Subscription subscription;
+	//Guarded by this
+	private List<String> pending;
+	private boolean busy;
+	private boolean completed;
+	private Throwable error;
+
+	public BloomFilterProcessor(BloomFilterStage stage) {
+		this(stage, BloomFilterStage.DEFAULT_BATCH_SIZE, 1, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * @param executor
+	 *            runs the batches and delivers to the subscribers
+	 */
+	public BloomFilterProcessor(BloomFilterStage stage, int maxBatchSize, int numWorkers, Executor executor) {
+		super(executor, Flow.defaultBufferSize());
+		if(maxBatchSize <= 0 || numWorkers <= 0){
+			throw new IllegalArgumentException("maxBatchSize and numWorkers must be > 0");
+		}
+		if(numWorkers > 1 && !stage.isThreadSafe()){
+			throw new IllegalArgumentException("Stage can't be shared by " + numWorkers + " workers");
+		}
+		this.stage = stage;
+		this.maxBatchSize = maxBatchSize;
+		this.numWorkers = numWorkers;
+		this.executor = executor;
+		this.pending = new ArrayList<String>();
+	}
+
+	/**
+	 * @return the stage, with the counts of keys passed and dropped.
+	 */
+	public BloomFilterStage getStage(){
+		return this.stage;
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		synchronized(this){
+			if(this.subscription != null){
+				subscription.cancel();
+				return;
+			}
+			this.subscription = subscription;
+		}
+		subscription.request(this.maxBatchSize);
+	}
+
+	@Override
+	public void onNext(String key) {
+		synchronized(this){
+			this.pending.add(key);
+			if(!this.busy){
+				startBatch();
+			}
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		synchronized(this){
+			this.error = throwable;
+			onComplete();
+		}
+	}
+
+	/**
+	 * The subscribers complete once the keys received so far are handled.
+	 */
+	@Override
+	public void onComplete() {
+		synchronized(this){
+			this.completed = true;
+			if(!this.busy){
+				if(this.pending.isEmpty()){
+					finish();
+				}
+				else{
+					startBatch();
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized(this){
+			if(this.subscription != null && !this.completed){
+				this.subscription.cancel();
+			}
+			this.completed = true;
+		}
+		super.close();
+	}
+
+	//Called holding the lock, with keys pending and no batch running
+	private void startBatch(){
+		final List<String> batch = this.pending;
+		this.pending = new ArrayList<String>();
+		this.busy = true;
+
+		int numParts = Math.min(this.numWorkers, (batch.size() + MIN_PART_KEYS - 1) / MIN_PART_KEYS);
+		if(numParts <= 1){
+			final boolean[] pass = new boolean[batch.size()];
+			CompletableFuture.runAsync(() -> this.stage.process(batch, pass), this.executor)
+				.whenComplete((result, throwable) -> deliver(batch, pass, throwable));
+			return;
+		}
+
+		final int[] partOf = new int[batch.size()];
+		final List<List<String>> parts = new ArrayList<List<String>>(numParts);
+		for(int i = 0; i < numParts; i++){
+			parts.add(new ArrayList<String>());
+		}
+		for(int i = 0; i < partOf.length; i++){
+			String key = batch.get(i);
+			partOf[i] = (int)(((key.hashCode() * 0x9E3779B9L) & 0xFFFFFFFFL) * numParts >>> 32);
+			parts.get(partOf[i]).add(key);
+		}
+		final boolean[][] passes = new boolean[numParts][];
+		CompletableFuture<?>[] futures = new CompletableFuture<?>[numParts];
+		for(int i = 0; i < numParts; i++){
+			final List<String> part = parts.get(i);
+			final boolean[] pass = passes[i] = new boolean[part.size()];
+			futures[i] = CompletableFuture.runAsync(() -> this.stage.process(part, pass), this.executor);
+		}
+		CompletableFuture.allOf(futures).whenComplete((result, throwable) -> {
+			boolean[] pass = new boolean[partOf.length];
+			if(throwable == null){
+				int[] next = new int[passes.length];
+				for(int i = 0; i < partOf.length; i++){
+					pass[i] = passes[partOf[i]][next[partOf[i]]++];
+				}
+			}
+			deliver(batch, pass, throwable);
+		});
+	}
+
+	//A submit that throws fails the stream like a batch that throws, rather
+	//than leaving it busy for good
+	private void deliver(List<String> batch, boolean[] pass, Throwable throwable){
+		try{
+			if(throwable == null){
+				for(int i = 0; i < pass.length; i++){
+					if(pass[i]){
+						submit(batch.get(i));
+					}
+				}
+			}
+		}
+		catch(Throwable t){
+			throwable = t;
+		}
+		batchDone(batch.size(), throwable);
+	}
+
+	private void batchDone(int batchSize, Throwable throwable){
+		Flow.Subscription subscription;
+		synchronized(this){
+			this.busy = false;
+			if(throwable != null){
+				this.pending.clear();
+				this.error = throwable;
+				this.completed = true;
+				this.subscription.cancel();
+			}
+			if(!this.pending.isEmpty()){
+				startBatch();
+			}
+			else if(this.completed){
+				finish();
+			}
+			if(this.completed){
+				return;
+			}
+			subscription = this.subscription;
+		}
+		subscription.request(batchSize);
+	}
+
+	private void finish(){
+		if(this.error != null){
+			closeExceptionally(this.error);
+		}
+		else{
+			super.close();
+		}
+	}
+}
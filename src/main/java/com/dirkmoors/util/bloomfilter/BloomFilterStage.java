@@ -0,0 +1,222 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+
+/**
+ * Stream processing step that deduplicates keys, or filters them by
+ * membership, against an IMembershipFilter. Keys are handled in batches, so
+ * a BloomFilter is probed with containsAll and addAll. Counts the keys
+ * passed and dropped.
+ *
+ * filter wraps an Iterator or Stream; BloomFilterProcessor runs a stage as a
+ * Flow.Processor. Not thread safe unless the filter is, see isThreadSafe.
+ */
+public class BloomFilterStage {
+	public static final int DEFAULT_BATCH_SIZE = BloomFilter.BATCH_KEYS;
+
+	public static enum Mode {
+		/**
+		 * Passes keys the filter does not hold yet, and adds them.
+		 */
+		DEDUPLICATE,
+		/**
+		 * Passes keys the filter may hold.
+		 */
+		RETAIN_MEMBERS,
+		/**
+		 * Passes keys the filter does not hold.
+		 */
+		REMOVE_MEMBERS
+	}
+
+	private final IMembershipFilter filter;
+	private final Mode mode;
+
+	private final LongAdder passed = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder processingNanos = new LongAdder();
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if mode is DEDUPLICATE and keys can't be added to filter.
+	 */
+	public BloomFilterStage(IMembershipFilter filter, Mode mode) {
+		if(filter == null || mode == null){
+			throw new IllegalArgumentException("filter and mode must not be null");
+		}
+		if(mode == Mode.DEDUPLICATE && !(filter instanceof IMutableMembershipFilter)){
+			throw new IllegalArgumentException("DEDUPLICATE needs an IMutableMembershipFilter");
+		}
+		this.filter = filter;
+		this.mode = mode;
+	}
+
+	public IMembershipFilter getFilter(){
+		return this.filter;
+	}
+
+	public Mode getMode(){
+		return this.mode;
+	}
+
+	public long getPassedCount(){
+		return this.passed.sum();
+	}
+
+	public long getDroppedCount(){
+		return this.dropped.sum();
+	}
+
+	/**
+	 * @return the time spent checking and adding keys, summed over all
+	 *         threads.
+	 */
+	public long getProcessingNanos(){
+		return this.processingNanos.sum();
+	}
+
+	/**
+	 * @return keys handled per second of processing time, so per thread.
+	 */
+	public double getKeysPerSecond(){
+		long nanos = getProcessingNanos();
+		return nanos == 0 ? 0 : (getPassedCount() + getDroppedCount()) * 1e9 / nanos;
+	}
+
+	/**
+	 * @return true if batches can be processed on several threads at once:
+	 *         the filter is a ConcurrentBloomFilter, or a BloomFilter that is
+	 *         only read.
+	 */
+	public boolean isThreadSafe(){
+		return (
+			this.filter instanceof ConcurrentBloomFilter ||
+			(this.filter instanceof BloomFilter && this.mode != Mode.DEDUPLICATE));
+	}
+
+	public Iterator<String> filter(Iterator<String> keys){
+		return filter(keys, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * @return the keys of keys that pass, in order. keys is read ahead by up
+	 *         to batchSize keys.
+	 */
+	public Iterator<String> filter(final Iterator<String> keys, final int batchSize){
+		if(batchSize <= 0){
+			throw new IllegalArgumentException("batchSize must be > 0");
+		}
+		return new Iterator<String>() {
+			private final List<String> batch = new ArrayList<String>();
+			private final boolean[] pass = new boolean[batchSize];
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				while(true){
+					for(; this.next < this.batch.size(); this.next++){
+						if(this.pass[this.next]){
+							return true;
+						}
+					}
+					if(!keys.hasNext()){
+						return false;
+					}
+					this.batch.clear();
+					this.next = 0;
+					while(this.batch.size() < batchSize && keys.hasNext()){
+						this.batch.add(keys.next());
+					}
+					process(this.batch, this.pass);
+				}
+			}
+
+			@Override
+			public String next() {
+				if(!hasNext()){
+					throw new NoSuchElementException();
+				}
+				return this.batch.get(this.next++);
+			}
+		};
+	}
+
+	/**
+	 * @return a sequential stream of the keys that pass, in order. Closing it
+	 *         closes keys.
+	 */
+	public Stream<String> filter(Stream<String> keys){
+		Spliterator<String> spliterator = Spliterators.spliteratorUnknownSize(
+			filter(keys.iterator()), Spliterator.ORDERED);
+		return StreamSupport.stream(spliterator, false).onClose(keys::close);
+	}
+
+	/**
+	 * Sets pass[i] for every key of batch. In DEDUPLICATE mode the keys that
+	 * pass are added, and a key that occurs more than once in batch passes
+	 * only the first time.
+	 */
+	void process(List<String> batch, boolean[] pass){
+		long start = System.nanoTime();
+		int size = batch.size();
+		BitSet maybe;
+		if(this.filter instanceof BloomFilter){
+			maybe = ((BloomFilter)this.filter).containsAll(batch);
+		}
+		else{
+			maybe = new BitSet(size);
+			for(int i = 0; i < size; i++){
+				if(this.filter.contains(batch.get(i)) == Result.MAYBE){
+					maybe.set(i);
+				}
+			}
+		}
+
+		int numPassed = 0;
+		if(this.mode == Mode.DEDUPLICATE){
+			Set<String> seen = new HashSet<String>();
+			List<String> added = new ArrayList<String>();
+			for(int i = 0; i < size; i++){
+				String key = batch.get(i);
+				pass[i] = !maybe.get(i) && seen.add(key);
+				if(pass[i]){
+					added.add(key);
+				}
+			}
+			if(this.filter instanceof BloomFilter){
+				((BloomFilter)this.filter).addAll(added);
+			}
+			else{
+				for(String key : added){
+					((IMutableMembershipFilter)this.filter).add(key);
+				}
+			}
+			numPassed = added.size();
+		}
+		else{
+			boolean retain = this.mode == Mode.RETAIN_MEMBERS;
+			for(int i = 0; i < size; i++){
+				pass[i] = maybe.get(i) == retain;
+				if(pass[i]){
+					numPassed++;
+				}
+			}
+		}
+		this.passed.add(numPassed);
+		this.dropped.add(size - numPassed);
+		this.processingNanos.add(System.nanoTime() - start);
+	}
+}
@@ -0,0 +1,233 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.DataFormatException;
+
+import org.json.JSONException;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeConsumer;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.MurmurProbeGenerator;
+
+/**
+ * Thread safe BloomFilter. Bits are set with compare-and-swap on an
+ * AtomicLongArray, so concurrent adds never lose bits and contains never
+ * blocks. Sizing, probe generators and the JSON format are shared with
+ * BloomFilter.
+ */
+public class ConcurrentBloomFilter implements IMutableMembershipFilter {
+	private final long idealNumElementsN;
+	private final double errorRateP;
+
+	private final int numBitsM;
+	private final int numProbesK;
+	private final int numWords;
+	private final AtomicLongArray data;
+
+	private final IBloomFilterProbeGenerator probeGenerator;
+
+	private final IBloomFilterProbeConsumer setBitConsumer = new IBloomFilterProbeConsumer() {
+		@Override
+		public boolean accept(int bitno) {
+			setWordBits(bitno >>> 6, 1L << (bitno & 63));
+			return true;
+		}
+	};
+
+	private final IBloomFilterProbeConsumer testBitConsumer = new IBloomFilterProbeConsumer() {
+		@Override
+		public boolean accept(int bitno) {
+			return (data.get(bitno >>> 6) & (1L << (bitno & 63))) != 0;
+		}
+	};
+
+	public ConcurrentBloomFilter(long idealNumElementsN, double errorRateP) {
+		this(idealNumElementsN, errorRateP, null);
+	}
+
+	public ConcurrentBloomFilter(long idealNumElementsN, double errorRateP, IBloomFilterProbeGenerator probeGenerator) {
+		if(idealNumElementsN <= 0){
+			throw new IllegalArgumentException("idealNumElementsN must be > 0");
+		}
+		if(!(0 < errorRateP &&  errorRateP < 1)){
+			throw new IllegalArgumentException("errorRateP must be between 0 and 1 exclusive");
+		}
+
+		this.idealNumElementsN = idealNumElementsN;
+		this.errorRateP = errorRateP;
+
+		this.numBitsM = BloomFilter.calculateNumBitsM(
+			this.idealNumElementsN, this.errorRateP);
+
+		this.numProbesK = BloomFilter.calculateNumProbesK(
+			this.idealNumElementsN, this.numBitsM);
+
+		this.numWords = BloomFilter.calculateNumWords(this.numBitsM);
+
+		this.probeGenerator = (
+				probeGenerator != null ?
+						probeGenerator :
+						new MurmurProbeGenerator());
+
+		this.data = new AtomicLongArray(this.numWords);
+	}
+
+	/**
+	 * Creates a thread safe copy of bfilter.
+	 */
+	public ConcurrentBloomFilter(BloomFilter bfilter) {
+		this(bfilter.getIdealNumberOfElements(), bfilter.getErrorRate(),
+			bfilter.getProbeGenerator());
+		if(bfilter.getLayout() != BloomFilter.Layout.STANDARD){
+			throw new IllegalArgumentException("Unsupported layout: "+bfilter.getLayout());
+		}
+		long[] words = bfilter.readWords();
+		for(int i = 0; i < words.length; i++){
+			this.data.set(i, words[i]);
+		}
+	}
+
+	public long getIdealNumberOfElements(){
+		return this.idealNumElementsN;
+	}
+
+	public double getErrorRate(){
+		return this.errorRateP;
+	}
+
+	public int getNumberOfProbes(){
+		return this.numProbesK;
+	}
+
+	public int getNumberOfBits(){
+		return this.numBitsM;
+	}
+
+	public IBloomFilterProbeGenerator getProbeGenerator(){
+		return this.probeGenerator;
+	}
+
+	public void add(String key){
+		this.probeGenerator.forEachProbe(this.numProbesK, this.numBitsM, key, this.setBitConsumer);
+	}
+
+	public Result contains(String key){
+		boolean allSet = this.probeGenerator.forEachProbe(
+			this.numProbesK, this.numBitsM, key, this.testBitConsumer);
+		return allSet ? Result.MAYBE : Result.NO;
+	}
+
+	public boolean matchTemplate(ConcurrentBloomFilter bfilter){
+		return (
+			this.numBitsM == bfilter.numBitsM &&
+			this.numProbesK == bfilter.numProbesK);
+	}
+
+	public boolean matchTemplate(BloomFilter bfilter){
+		return (
+			this.numBitsM == bfilter.getNumberOfBits() &&
+			this.numProbesK == bfilter.getNumberOfProbes());
+	}
+
+	/**
+	 * ORs the bits of bfilter into this filter in place. Concurrent adds to
+	 * this filter are never lost; adds to bfilter that happen during the
+	 * union may or may not be included.
+	 */
+	public void union(ConcurrentBloomFilter bfilter){
+		if(!this.matchTemplate(bfilter)){
+			throw new IllegalArgumentException("Mismatched bloom filters");
+		}
+		for(int i = 0; i < this.numWords; i++){
+			setWordBits(i, bfilter.data.get(i));
+		}
+	}
+
+	public void union(BloomFilter bfilter){
+		if(!this.matchTemplate(bfilter)){
+			throw new IllegalArgumentException("Mismatched bloom filters");
+		}
+		long[] words = bfilter.readWords();
+		for(int i = 0; i < this.numWords; i++){
+			setWordBits(i, words[i]);
+		}
+	}
+
+	/**
+	 * ANDs the bits of bfilter into this filter in place. Keys added to this
+	 * filter while the intersection runs may be cleared again.
+	 */
+	public void intersection(ConcurrentBloomFilter bfilter){
+		if(!this.matchTemplate(bfilter)){
+			throw new IllegalArgumentException("Mismatched bloom filters");
+		}
+		for(int i = 0; i < this.numWords; i++){
+			clearWordBits(i, ~bfilter.data.get(i));
+		}
+	}
+
+	public void intersection(BloomFilter bfilter){
+		if(!this.matchTemplate(bfilter)){
+			throw new IllegalArgumentException("Mismatched bloom filters");
+		}
+		long[] words = bfilter.readWords();
+		for(int i = 0; i < this.numWords; i++){
+			clearWordBits(i, ~words[i]);
+		}
+	}
+
+	/**
+	 * @return a plain BloomFilter holding every bit set before this call
+	 *         started.
+	 */
+	public BloomFilter toBloomFilter(){
+		BloomFilter result = new BloomFilter(
+			this.idealNumElementsN, this.errorRateP, this.probeGenerator);
+		long[] words = result.getWords();
+		for(int i = 0; i < this.numWords; i++){
+			words[i] = this.data.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return a copy of the bits in the wire layout, see BloomFilter.getData()
+	 */
+	public long[] getData(){
+		return toBloomFilter().getData();
+	}
+
+	public String toJSON() throws JSONException, IOException{
+		return toJSON(true);
+	}
+
+	public String toJSON(boolean compressed) throws JSONException, IOException{
+		return toBloomFilter().toJSON(compressed);
+	}
+
+	public static ConcurrentBloomFilter fromJSON(String jsonString) throws IOException, DataFormatException{
+		return new ConcurrentBloomFilter(BloomFilter.fromJSON(jsonString));
+	}
+
+	private void setWordBits(int index, long mask){
+		long current = this.data.get(index);
+		while((current & mask) != mask){
+			if(this.data.compareAndSet(index, current, current | mask)){
+				return;
+			}
+			current = this.data.get(index);
+		}
+	}
+
+	private void clearWordBits(int index, long mask){
+		long current = this.data.get(index);
+		while((current & mask) != 0){
+			if(this.data.compareAndSet(index, current, current & ~mask)){
+				return;
+			}
+			current = this.data.get(index);
+		}
+	}
+}
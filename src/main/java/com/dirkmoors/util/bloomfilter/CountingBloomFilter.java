@@ -0,0 +1,200 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.io.IOException;
+
+import org.json.JSONException;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeConsumer;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.MurmurProbeGenerator;
+
+/**
+ * BloomFilter with a small counter instead of a bit per position, so keys
+ * can be removed again. Counters are packed 64 / counterBits per long and
+ * saturate: a counter that reached its maximum is never decremented, which
+ * keeps false negatives impossible at the cost of positions that can no
+ * longer be cleared.
+ *
+ * Sizing and probes are those of BloomFilter, so toBloomFilter() gives the
+ * bits a BloomFilter holding the same keys would have. Not thread safe.
+ */
+public class CountingBloomFilter implements IMutableMembershipFilter {
+	public static final int DEFAULT_COUNTER_BITS = 4;
+
+	private final long idealNumElementsN;
+	private final double errorRateP;
+
+	private final int numBitsM;
+	private final int numProbesK;
+	private final int counterBits;
+	private final int counterShift;
+	private final long counterMax;
+	private final long[] counters;
+
+	private final IBloomFilterProbeGenerator probeGenerator;
+
+	private final IBloomFilterProbeConsumer incrementConsumer = new IBloomFilterProbeConsumer() {
+		@Override
+		public boolean accept(int bitno) {
+			long counter = getCounter(bitno);
+			if(counter < counterMax){
+				setCounter(bitno, counter + 1);
+			}
+			return true;
+		}
+	};
+
+	private final IBloomFilterProbeConsumer decrementConsumer = new IBloomFilterProbeConsumer() {
+		@Override
+		public boolean accept(int bitno) {
+			//A key may probe a position twice, so it can already be 0 when
+			//removing a key that was never added
+			long counter = getCounter(bitno);
+			if(counter > 0 && counter < counterMax){
+				setCounter(bitno, counter - 1);
+			}
+			return true;
+		}
+	};
+
+	private final IBloomFilterProbeConsumer testConsumer = new IBloomFilterProbeConsumer() {
+		@Override
+		public boolean accept(int bitno) {
+			return getCounter(bitno) != 0;
+		}
+	};
+
+	public CountingBloomFilter(long idealNumElementsN, double errorRateP) {
+		this(idealNumElementsN, errorRateP, null);
+	}
+
+	public CountingBloomFilter(long idealNumElementsN, double errorRateP, IBloomFilterProbeGenerator probeGenerator) {
+		this(idealNumElementsN, errorRateP, probeGenerator, DEFAULT_COUNTER_BITS);
+	}
+
+	/**
+	 * @param counterBits
+	 *            2, 4, 8 or 16
+	 */
+	public CountingBloomFilter(long idealNumElementsN, double errorRateP, IBloomFilterProbeGenerator probeGenerator,
+			int counterBits) {
+		if(idealNumElementsN <= 0){
+			throw new IllegalArgumentException("idealNumElementsN must be > 0");
+		}
+		if(!(0 < errorRateP &&  errorRateP < 1)){
+			throw new IllegalArgumentException("errorRateP must be between 0 and 1 exclusive");
+		}
+		if(counterBits != 2 && counterBits != 4 && counterBits != 8 && counterBits != 16){
+			throw new IllegalArgumentException("counterBits must be 2, 4, 8 or 16");
+		}
+
+		this.idealNumElementsN = idealNumElementsN;
+		this.errorRateP = errorRateP;
+
+		this.numBitsM = BloomFilter.calculateNumBitsM(
+			this.idealNumElementsN, this.errorRateP);
+
+		this.numProbesK = BloomFilter.calculateNumProbesK(
+			this.idealNumElementsN, this.numBitsM);
+
+		this.probeGenerator = (
+				probeGenerator != null ?
+						probeGenerator :
+						new MurmurProbeGenerator());
+
+		this.counterBits = counterBits;
+		this.counterShift = Integer.numberOfTrailingZeros(counterBits);
+		this.counterMax = (1L << counterBits) - 1;
+		this.counters = new long[(int)((((long)this.numBitsM << this.counterShift) + 63) >>> 6)];
+	}
+
+	public long getIdealNumberOfElements(){
+		return this.idealNumElementsN;
+	}
+
+	public double getErrorRate(){
+		return this.errorRateP;
+	}
+
+	public int getNumberOfProbes(){
+		return this.numProbesK;
+	}
+
+	public int getNumberOfBits(){
+		return this.numBitsM;
+	}
+
+	public int getCounterBits(){
+		return this.counterBits;
+	}
+
+	public IBloomFilterProbeGenerator getProbeGenerator(){
+		return this.probeGenerator;
+	}
+
+	public void add(String key){
+		this.probeGenerator.forEachProbe(this.numProbesK, this.numBitsM, key, this.incrementConsumer);
+	}
+
+	/**
+	 * Removes a key added before. Removing a key that was never added may
+	 * clear positions of other keys; keys that are certainly absent are
+	 * ignored.
+	 *
+	 * @return false if the key was certainly absent, true otherwise.
+	 */
+	public boolean remove(String key){
+		if(contains(key) == Result.NO){
+			return false;
+		}
+		this.probeGenerator.forEachProbe(this.numProbesK, this.numBitsM, key, this.decrementConsumer);
+		return true;
+	}
+
+	public Result contains(String key){
+		boolean allSet = this.probeGenerator.forEachProbe(
+			this.numProbesK, this.numBitsM, key, this.testConsumer);
+		return allSet ? Result.MAYBE : Result.NO;
+	}
+
+	/**
+	 * @return a BloomFilter with a bit set for every non zero counter.
+	 */
+	public BloomFilter toBloomFilter(){
+		BloomFilter result = new BloomFilter(
+			this.idealNumElementsN, this.errorRateP, this.probeGenerator);
+		long[] words = result.getWords();
+		int countersPerWord = 64 >>> this.counterShift;
+		for(int i = 0; i < this.counters.length; i++){
+			long word = this.counters[i];
+			for(int j = 0; word != 0; j++, word >>>= this.counterBits){
+				if((word & this.counterMax) != 0){
+					int bitno = i * countersPerWord + j;
+					words[bitno >>> 6] |= 1L << (bitno & 63);
+				}
+			}
+		}
+		return result;
+	}
+
+	public String toJSON() throws JSONException, IOException{
+		return toBloomFilter().toJSON();
+	}
+
+	public String toJSON(boolean compressed) throws JSONException, IOException{
+		return toBloomFilter().toJSON(compressed);
+	}
+
+	private long getCounter(int index){
+		long bit = (long)index << this.counterShift;
+		return (this.counters[(int)(bit >>> 6)] >>> (bit & 63)) & this.counterMax;
+	}
+
+	private void setCounter(int index, long value){
+		long bit = (long)index << this.counterShift;
+		int word = (int)(bit >>> 6);
+		int shift = (int)(bit & 63);
+		this.counters[word] = (this.counters[word] & ~(this.counterMax << shift)) | ((value & this.counterMax) << shift);
+	}
+}
@@ -0,0 +1,124 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.io.FilterReader;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Wrappers counting what passes through them, for the serialization 
+ * metrics. The JSON text is ASCII, so chars count as bytes.
+ */
+final class CountingStreams {
+	private CountingStreams(){}
+	
+	static final class CountingWriter extends FilterWriter {
+		long count;
+		
+		public CountingWriter(Writer out){
+			super(out);
+		}
+		
+		@Override
+		public void write(int c) throws IOException{
+			super.write(c);
+			this.count++;
+		}
+		
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException{
+			super.write(cbuf, off, len);
+			this.count += len;
+		}
+		
+		@Override
+		public void write(String str, int off, int len) throws IOException{
+			super.write(str, off, len);
+			this.count += len;
+		}
+	}
+	
+	static final class CountingReader extends FilterReader {
+		long count;
+		
+		public CountingReader(Reader in){
+			super(in);
+		}
+		
+		@Override
+		public int read() throws IOException{
+			int c = super.read();
+			if(c >= 0){
+				this.count++;
+			}
+			return c;
+		}
+		
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException{
+			int read = super.read(cbuf, off, len);
+			if(read > 0){
+				this.count += read;
+			}
+			return read;
+		}
+	}
+	
+	static final class CountingWritableChannel implements WritableByteChannel {
+		private final WritableByteChannel channel;
+		long count;
+		
+		public CountingWritableChannel(WritableByteChannel channel){
+			this.channel = channel;
+		}
+		
+		@Override
+		public int write(ByteBuffer src) throws IOException{
+			int written = this.channel.write(src);
+			this.count += written;
+			return written;
+		}
+		
+		@Override
+		public boolean isOpen(){
+			return this.channel.isOpen();
+		}
+		
+		@Override
+		public void close() throws IOException{
+			this.channel.close();
+		}
+	}
+	
+	static final class CountingReadableChannel implements ReadableByteChannel {
+		private final ReadableByteChannel channel;
+		long count;
+		
+		public CountingReadableChannel(ReadableByteChannel channel){
+			this.channel = channel;
+		}
+		
+		@Override
+		public int read(ByteBuffer dst) throws IOException{
+			int read = this.channel.read(dst);
+			if(read > 0){
+				this.count += read;
+			}
+			return read;
+		}
+		
+		@Override
+		public boolean isOpen(){
+			return this.channel.isOpen();
+		}
+		
+		@Override
+		public void close() throws IOException{
+			this.channel.close();
+		}
+	}
+}
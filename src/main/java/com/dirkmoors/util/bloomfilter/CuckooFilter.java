@@ -0,0 +1,394 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.DataFormatException;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.probegenerators.BloomFilterProbeGenerators;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterLongProbeConsumer;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterLongProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.Murmur3ProbeGenerator;
+
+/**
+ * Cuckoo filter (Fan et al., "Cuckoo Filter: Practically Better Than
+ * Bloom"): every key leaves a fingerprint of fingerprintBits bits in one of
+ * two buckets of BUCKET_SIZE slots, so a lookup reads two buckets whatever
+ * the error rate, and keys can be removed again. The fingerprints are packed
+ * back to back in a long[].
+ *
+ * The second bucket is derived from the first and the fingerprint alone:
+ * i2 = (hash(fingerprint) - i1) mod numBuckets, which maps i2 back to i1, so
+ * fingerprints can be moved without their key. A full bucket pair makes room
+ * by kicking fingerprints to their other bucket, at most MAX_KICKS times; the
+ * last one kicked out is kept aside, and from then on the filter is full and
+ * tryAdd returns false. Not thread safe.
+ */
+public class CuckooFilter implements IMutableMembershipFilter {
+	public static final String TYPE = "CUCKOO";
+	public static final int BUCKET_SIZE = 4;
+	public static final int MAX_KICKS = 500;
+	static final double LOAD_FACTOR = 0.95;
+
+	private final long idealNumElementsN;
+	private final double errorRateP;
+
+	private final int fingerprintBits;
+	private final long fingerprintMask;
+	private final int numBuckets;
+	private final long[] data;
+	private long count;
+
+	//Fingerprint kicked out by the insert that found the filter full, 0 if none
+	private int victimFingerprint;
+	private int victimBucket;
+	private long kickState = 0x9E3779B97F4A7C15L;
+
+	private final IBloomFilterLongProbeGenerator probeGenerator;
+
+	private final HashConsumer hashConsumer = new HashConsumer();
+
+	public CuckooFilter(long idealNumElementsN, double errorRateP) {
+		this(idealNumElementsN, errorRateP, null);
+	}
+
+	/**
+	 * @param probeGenerator
+	 *            hashes the keys; a single probe over [0, 2^62) gives both
+	 *            the bucket and the fingerprint
+	 */
+	public CuckooFilter(long idealNumElementsN, double errorRateP, IBloomFilterLongProbeGenerator probeGenerator) {
+		if(idealNumElementsN <= 0){
+			throw new IllegalArgumentException("idealNumElementsN must be > 0");
+		}
+		if(!(0 < errorRateP &&  errorRateP < 1)){
+			throw new IllegalArgumentException("errorRateP must be between 0 and 1 exclusive");
+		}
+
+		this.idealNumElementsN = idealNumElementsN;
+		this.errorRateP = errorRateP;
+
+		this.fingerprintBits = calculateFingerprintBits(errorRateP);
+		this.fingerprintMask = (1L << this.fingerprintBits) - 1;
+
+		long numBuckets = Math.max((long)Math.ceil(idealNumElementsN / (BUCKET_SIZE * LOAD_FACTOR)), 2);
+		//One spare word, so a fingerprint spanning two words never needs a check
+		long numWords = (numBuckets * BUCKET_SIZE * this.fingerprintBits + 63) / 64 + 1;
+		if(numWords > Integer.MAX_VALUE - 8){
+			throw new IllegalArgumentException("CuckooFilter too large");
+		}
+		this.numBuckets = (int)numBuckets;
+		this.data = new long[(int)numWords];
+
+		this.probeGenerator = (
+				probeGenerator != null ?
+						probeGenerator :
+						new Murmur3ProbeGenerator());
+	}
+
+	public long getIdealNumberOfElements(){
+		return this.idealNumElementsN;
+	}
+
+	public double getErrorRate(){
+		return this.errorRateP;
+	}
+
+	public int getFingerprintBits(){
+		return this.fingerprintBits;
+	}
+
+	public int getNumberOfBuckets(){
+		return this.numBuckets;
+	}
+
+	/**
+	 * @return the number of keys held; keys added more than once count more
+	 *         than once.
+	 */
+	public long getCount(){
+		return this.count;
+	}
+
+	public IBloomFilterLongProbeGenerator getProbeGenerator(){
+		return this.probeGenerator;
+	}
+
+	public boolean isFull(){
+		return this.victimFingerprint != 0;
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             when the filter is full, see tryAdd.
+	 */
+	public void add(String key){
+		if(!tryAdd(key)){
+			throw new IllegalStateException("CuckooFilter is full");
+		}
+	}
+
+	/**
+	 * Adds key, unless the filter is full. The insert that fills it up still
+	 * succeeds; the ones after it return false and change nothing.
+	 */
+	public boolean tryAdd(String key){
+		if(this.victimFingerprint != 0){
+			return false;
+		}
+		hash(key);
+		int fingerprint = this.hashConsumer.fingerprint;
+		int bucket = this.hashConsumer.bucket;
+		if(insert(bucket, fingerprint) || insert(alternateBucket(bucket, fingerprint), fingerprint)){
+			this.count++;
+			return true;
+		}
+
+		if((nextKick() & 1) != 0){
+			bucket = alternateBucket(bucket, fingerprint);
+		}
+		for(int kick = 0; kick < MAX_KICKS; kick++){
+			long slot = (long)bucket * BUCKET_SIZE + (int)(nextKick() >>> 62);
+			int kicked = getFingerprint(slot);
+			setFingerprint(slot, fingerprint);
+			fingerprint = kicked;
+			bucket = alternateBucket(bucket, fingerprint);
+			if(insert(bucket, fingerprint)){
+				this.count++;
+				return true;
+			}
+		}
+		this.victimFingerprint = fingerprint;
+		this.victimBucket = bucket;
+		this.count++;
+		return true;
+	}
+
+	public Result contains(String key){
+		hash(key);
+		int fingerprint = this.hashConsumer.fingerprint;
+		int bucket = this.hashConsumer.bucket;
+		int alternate = alternateBucket(bucket, fingerprint);
+		boolean found = (
+			bucketContains(bucket, fingerprint) ||
+			bucketContains(alternate, fingerprint) ||
+			(this.victimFingerprint == fingerprint &&
+				(this.victimBucket == bucket || this.victimBucket == alternate)));
+		return found ? Result.MAYBE : Result.NO;
+	}
+
+	/**
+	 * Removes one copy of a key added before. Removing a key that was never
+	 * added may remove another key with the same fingerprint and buckets.
+	 *
+	 * @return false if the key was certainly absent, true otherwise.
+	 */
+	public boolean remove(String key){
+		hash(key);
+		int fingerprint = this.hashConsumer.fingerprint;
+		int bucket = this.hashConsumer.bucket;
+		int alternate = alternateBucket(bucket, fingerprint);
+		if(this.victimFingerprint == fingerprint &&
+				(this.victimBucket == bucket || this.victimBucket == alternate)){
+			this.victimFingerprint = 0;
+			this.count--;
+			return true;
+		}
+		if(removeFrom(bucket, fingerprint) || removeFrom(alternate, fingerprint)){
+			this.count--;
+			//Maybe room again for the fingerprint kept aside
+			if(this.victimFingerprint != 0 && (insert(this.victimBucket, this.victimFingerprint) ||
+					insert(alternateBucket(this.victimBucket, this.victimFingerprint), this.victimFingerprint))){
+				this.victimFingerprint = 0;
+			}
+			return true;
+		}
+		return false;
+	}
+
+	public String toJSON() throws JSONException, IOException{
+		return toJSON(true);
+	}
+
+	/**
+	 * Same envelope as BloomFilter.toJSON, with the packed fingerprint words
+	 * as little endian longs in "data". Not readable by the Python library.
+	 */
+	public String toJSON(boolean compressed) throws JSONException, IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(this.data.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.asLongBuffer().put(this.data);
+		byte[] dataBytes = buffer.array();
+		String dataHash = DigestUtils.sha256Hex(dataBytes);
+		if(compressed){
+			dataBytes = BloomFilter.zlibCompress(dataBytes);
+		}
+
+		JSONObject result = new JSONObject();
+		result.put("v", BloomFilter.VERSION);
+		result.put("type", TYPE);
+		result.put("n", this.idealNumElementsN);
+		result.put("p", this.errorRateP);
+		result.put("count", this.count);
+		result.put("victim", this.victimFingerprint);
+		result.put("victimBucket", this.victimBucket);
+		result.put("zlib", compressed);
+		result.put("data", new String(Base64.encodeBase64(dataBytes)));
+		result.put("hash", dataHash);
+		result.put("gen", this.probeGenerator.getName());
+		return result.toString();
+	}
+
+	public static CuckooFilter fromJSON(String jsonString) throws IOException, DataFormatException{
+		JSONObject json = new JSONObject(jsonString);
+		String version = json.optString("v", null);
+		String type = json.optString("type", null);
+		long idealNumElementsN = json.optLong("n", -1);
+		double errorRateP = json.optDouble("p", -1);
+		long count = json.optLong("count", -1);
+		boolean compressed = json.optBoolean("zlib");
+		String b64data = json.optString("data", null);
+		String dataHash = json.optString("hash", null);
+		String gen = json.optString("gen", null);
+
+		if(version == null || !TYPE.equals(type) || idealNumElementsN == -1 || errorRateP == -1 || count < 0 ||
+				b64data == null || dataHash == null || gen == null){
+			throw new IllegalArgumentException("Invalid CuckooFilter JSON structure");
+		}
+		if(!version.equals(BloomFilter.VERSION)){
+			throw new IllegalArgumentException("Incompatible BloomFilter version");
+		}
+
+		byte[] rawdata = Base64.decodeBase64(b64data);
+		if(compressed){
+			rawdata = BloomFilter.zlibDecompress(rawdata);
+		}
+		if(!DigestUtils.sha256Hex(rawdata).equals(dataHash)){
+			throw new IllegalArgumentException("Data integrity error");
+		}
+
+		CuckooFilter result = new CuckooFilter(idealNumElementsN, errorRateP,
+			(IBloomFilterLongProbeGenerator)BloomFilterProbeGenerators.getProbeGenerator(gen));
+		if(rawdata.length != result.data.length * 8){
+			throw new IllegalArgumentException("Mismatched CuckooFilter size");
+		}
+		ByteBuffer.wrap(rawdata).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(result.data);
+		result.count = count;
+		result.victimFingerprint = json.optInt("victim", 0);
+		result.victimBucket = json.optInt("victimBucket", 0);
+		if(result.victimBucket < 0 || result.victimBucket >= result.numBuckets){
+			throw new IllegalArgumentException("Invalid CuckooFilter JSON structure");
+		}
+		return result;
+	}
+
+	/**
+	 * @return the smallest width with 2 * BUCKET_SIZE / 2^bits <= errorRateP,
+	 *         as a lookup compares against up to 2 * BUCKET_SIZE
+	 *         fingerprints.
+	 */
+	static int calculateFingerprintBits(double errorRateP){
+		int bits = (int)Math.ceil(Math.log(2 * BUCKET_SIZE / errorRateP) / Math.log(2));
+		if(bits > 30){
+			throw new IllegalArgumentException("errorRateP too small for a CuckooFilter");
+		}
+		return Math.max(bits, 4);
+	}
+
+	private void hash(String key){
+		this.probeGenerator.forEachLongProbe(1, 1L << 62, key, this.hashConsumer);
+	}
+
+	private int alternateBucket(int bucket, int fingerprint){
+		long hash = ((fingerprint * 0x5BD1E995L) & 0xFFFFFFFFL) * this.numBuckets >>> 32;
+		long result = hash - bucket;
+		return (int)(result < 0 ? result + this.numBuckets : result);
+	}
+
+	private boolean insert(int bucket, int fingerprint){
+		long slot = (long)bucket * BUCKET_SIZE;
+		for(int i = 0; i < BUCKET_SIZE; i++, slot++){
+			if(getFingerprint(slot) == 0){
+				setFingerprint(slot, fingerprint);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean bucketContains(int bucket, int fingerprint){
+		long slot = (long)bucket * BUCKET_SIZE;
+		for(int i = 0; i < BUCKET_SIZE; i++, slot++){
+			if(getFingerprint(slot) == fingerprint){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean removeFrom(int bucket, int fingerprint){
+		long slot = (long)bucket * BUCKET_SIZE;
+		for(int i = 0; i < BUCKET_SIZE; i++, slot++){
+			if(getFingerprint(slot) == fingerprint){
+				setFingerprint(slot, 0);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int getFingerprint(long slot){
+		long bit = slot * this.fingerprintBits;
+		int word = (int)(bit >>> 6);
+		int shift = (int)(bit & 63);
+		long value = this.data[word] >>> shift;
+		if(shift + this.fingerprintBits > 64){
+			value |= this.data[word + 1] << (64 - shift);
+		}
+		return (int)(value & this.fingerprintMask);
+	}
+
+	private void setFingerprint(long slot, int fingerprint){
+		long bit = slot * this.fingerprintBits;
+		int word = (int)(bit >>> 6);
+		int shift = (int)(bit & 63);
+		this.data[word] = (this.data[word] & ~(this.fingerprintMask << shift)) | ((long)fingerprint << shift);
+		if(shift + this.fingerprintBits > 64){
+			int high = 64 - shift;
+			this.data[word + 1] = (this.data[word + 1] & ~(this.fingerprintMask >>> high)) |
+				((long)fingerprint >>> high);
+		}
+	}
+
+	//xorshift64, only used to pick which fingerprint to kick
+	private long nextKick(){
+		long x = this.kickState;
+		x ^= x << 13;
+		x ^= x >>> 7;
+		x ^= x << 17;
+		this.kickState = x;
+		return x;
+	}
+
+	/**
+	 * Splits the probe: the low 32 bits pick the bucket, the high 30 bits
+	 * give the fingerprint, never 0 as that marks an empty slot.
+	 */
+	private final class HashConsumer implements IBloomFilterLongProbeConsumer {
+		int bucket;
+		int fingerprint;
+
+		@Override
+		public boolean accept(long probe) {
+			this.bucket = (int)(((probe & 0xFFFFFFFFL) * numBuckets) >>> 32);
+			int fingerprint = (int)((probe >>> 32) & fingerprintMask);
+			this.fingerprint = fingerprint != 0 ? fingerprint : 1;
+			return false;
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.dirkmoors.util.bloomfilter;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+
+/**
+ * Receives the operations of the BloomFilters it is set on. Implementations
+ * must be thread safe, as one instance is typically shared by many filters.
+ * 
+ * @see BloomFilterMetrics
+ */
+public interface IBloomFilterMetrics {
+	/**
+	 * Called before every add and contains, so it has to be cheap.
+	 * 
+	 * @return System.nanoTime() when the operation should be timed, 0
+	 *         otherwise.
+	 */
+	public long startTimer();
+	
+	/**
+	 * @param startNanos
+	 *            the value returned by startTimer
+	 */
+	public void added(int numKeys, long startNanos);
+	
+	public void contained(int numNo, int numMaybe, long startNanos);
+	
+	public void serialized(long numBytes, long startNanos);
+	
+	public void deserialized(long numBytes, long startNanos);
+	
+	public void unioned();
+	
+	public void intersected();
+}
@@ -0,0 +1,21 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.io.IOException;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+
+/**
+ * Approximate set membership: keys the filter holds are always reported as
+ * MAYBE, other keys as NO except for a fraction given by the error rate.
+ * Filters that take keys after they are built implement
+ * IMutableMembershipFilter.
+ */
+public interface IMembershipFilter {
+	public Result contains(String key);
+	
+	public double getErrorRate();
+	
+	public String toJSON() throws IOException;
+	
+	public String toJSON(boolean compressed) throws IOException;
+}
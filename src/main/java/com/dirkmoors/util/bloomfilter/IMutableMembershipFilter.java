@@ -0,0 +1,8 @@
+package com.dirkmoors.util.bloomfilter;
+
+/**
+ * IMembershipFilter that keys can be added to.
+ */
+public interface IMutableMembershipFilter extends IMembershipFilter {
+	public void add(String key);
+}
@@ -0,0 +1,207 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.probegenerators.BloomFilterProbeGenerators;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterLongProbeConsumer;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterLongProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.MurmurProbeGenerator;
+
+/**
+ * BloomFilter for more than 2^31 bits. Bit numbers are longs and the words
+ * are spread over segments of at most SEGMENT_WORDS words, so no single
+ * array exceeds 128 MB. Filters that fit a BloomFilter get the same bits
+ * as a BloomFilter with the same generator.
+ */
+public class LargeBloomFilter {
+	static final int SEGMENT_SHIFT = 24;
+	static final int SEGMENT_WORDS = 1 << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = SEGMENT_WORDS - 1;
+
+	private final long idealNumElementsN;
+	private final double errorRateP;
+
+	private final long numBitsM;
+	private final int numProbesK;
+	private final long numWords;
+	private final long[][] segments;
+
+	private final IBloomFilterLongProbeGenerator probeGenerator;
+
+	private final IBloomFilterLongProbeConsumer setBitConsumer = new IBloomFilterLongProbeConsumer() {
+		@Override
+		public boolean accept(long bitno) {
+			long word = bitno >>> 6;
+			segments[(int)(word >>> SEGMENT_SHIFT)][(int)word & SEGMENT_MASK] |= 1L << (bitno & 63);
+			return true;
+		}
+	};
+
+	private final IBloomFilterLongProbeConsumer testBitConsumer = new IBloomFilterLongProbeConsumer() {
+		@Override
+		public boolean accept(long bitno) {
+			long word = bitno >>> 6;
+			return (segments[(int)(word >>> SEGMENT_SHIFT)][(int)word & SEGMENT_MASK] & (1L << (bitno & 63))) != 0;
+		}
+	};
+
+	public LargeBloomFilter(long idealNumElementsN, double errorRateP) {
+		this(idealNumElementsN, errorRateP, null);
+	}
+
+	public LargeBloomFilter(long idealNumElementsN, double errorRateP, IBloomFilterLongProbeGenerator probeGenerator) {
+		if(idealNumElementsN <= 0){
+			throw new IllegalArgumentException("idealNumElementsN must be > 0");
+		}
+		if(!(0 < errorRateP &&  errorRateP < 1)){
+			throw new IllegalArgumentException("errorRateP must be between 0 and 1 exclusive");
+		}
+
+		this.idealNumElementsN = idealNumElementsN;
+		this.errorRateP = errorRateP;
+
+		this.numBitsM = BloomFilter.calculateLongNumBitsM(
+			this.idealNumElementsN, this.errorRateP);
+
+		this.numProbesK = BloomFilter.calculateNumProbesK(
+			this.idealNumElementsN, this.numBitsM);
+
+		this.numWords = (this.numBitsM + 63) / 64;
+
+		this.probeGenerator = (
+				probeGenerator != null ?
+						probeGenerator :
+						new MurmurProbeGenerator());
+
+		int numSegments = (int)((this.numWords + SEGMENT_WORDS - 1) / SEGMENT_WORDS);
+		this.segments = new long[numSegments][];
+		for(int i = 0; i < numSegments; i++){
+			long remaining = this.numWords - (long)i * SEGMENT_WORDS;
+			this.segments[i] = new long[(int)Math.min(SEGMENT_WORDS, remaining)];
+		}
+	}
+
+	public long getIdealNumberOfElements(){
+		return this.idealNumElementsN;
+	}
+
+	public double getErrorRate(){
+		return this.errorRateP;
+	}
+
+	public int getNumberOfProbes(){
+		return this.numProbesK;
+	}
+
+	public long getNumberOfBits(){
+		return this.numBitsM;
+	}
+
+	public IBloomFilterLongProbeGenerator getProbeGenerator(){
+		return this.probeGenerator;
+	}
+
+	public void add(String key){
+		this.probeGenerator.forEachLongProbe(this.numProbesK, this.numBitsM, key, this.setBitConsumer);
+	}
+
+	public Result contains(String key){
+		boolean allSet = this.probeGenerator.forEachLongProbe(
+			this.numProbesK, this.numBitsM, key, this.testBitConsumer);
+		return allSet ? Result.MAYBE : Result.NO;
+	}
+
+	public boolean matchTemplate(LargeBloomFilter bfilter){
+		return (
+			this.numBitsM == bfilter.numBitsM &&
+			this.numProbesK == bfilter.numProbesK);
+	}
+
+	public void union(LargeBloomFilter bfilter){
+		if(!this.matchTemplate(bfilter)){
+			throw new IllegalArgumentException("Mismatched bloom filters");
+		}
+		for(int s = 0; s < this.segments.length; s++){
+			long[] segment = this.segments[s];
+			long[] other = bfilter.segments[s];
+			for(int i = 0; i < segment.length; i++){
+				segment[i] |= other[i];
+			}
+		}
+	}
+
+	public void intersection(LargeBloomFilter bfilter){
+		if(!this.matchTemplate(bfilter)){
+			throw new IllegalArgumentException("Mismatched bloom filters");
+		}
+		for(int s = 0; s < this.segments.length; s++){
+			long[] segment = this.segments[s];
+			long[] other = bfilter.segments[s];
+			for(int i = 0; i < segment.length; i++){
+				segment[i] &= other[i];
+			}
+		}
+	}
+
+	public void writeTo(OutputStream out) throws IOException{
+		writeTo(Channels.newChannel(out), false);
+	}
+
+	public void writeTo(OutputStream out, boolean compressed) throws IOException{
+		writeTo(Channels.newChannel(out), compressed);
+	}
+
+	public void writeTo(WritableByteChannel channel) throws IOException{
+		writeTo(channel, false);
+	}
+
+	/**
+	 * Streams the filter in the little endian BinaryFormat, one chunk at a
+	 * time, so filters of any size can be written.
+	 */
+	public void writeTo(WritableByteChannel channel, boolean compressed) throws IOException{
+		BinaryFormat.Header header = new BinaryFormat.Header();
+		header.flags = compressed ? BinaryFormat.FLAG_COMPRESSED : 0;
+		header.idealNumElementsN = this.idealNumElementsN;
+		header.errorRateP = this.errorRateP;
+		header.numProbesK = this.numProbesK;
+		header.numBitsM = this.numBitsM;
+		header.gen = this.probeGenerator.getName();
+		BinaryFormat.writeHeader(channel, header);
+		BinaryFormat.writeWords(channel, this.segments, SEGMENT_WORDS, this.numWords, compressed);
+	}
+
+	public static LargeBloomFilter readFrom(InputStream in) throws IOException{
+		return readFrom(Channels.newChannel(in));
+	}
+
+	public static LargeBloomFilter readFrom(ReadableByteChannel channel) throws IOException{
+		BinaryFormat.Header header = BinaryFormat.readHeader(channel);
+		if(header.layout != 0){
+			throw new IllegalArgumentException("Unsupported layout: "+header.layout);
+		}
+
+		IBloomFilterProbeGenerator probeGenerator =
+			BloomFilterProbeGenerators.getProbeGenerator(header.gen);
+		if(!(probeGenerator instanceof IBloomFilterLongProbeGenerator)){
+			throw new IllegalArgumentException("ProbeGenerator does not support long probes: "+header.gen);
+		}
+
+		LargeBloomFilter newBloomFilter = new LargeBloomFilter(
+			header.idealNumElementsN, header.errorRateP,
+			(IBloomFilterLongProbeGenerator)probeGenerator);
+		if(newBloomFilter.numBitsM != header.numBitsM || newBloomFilter.numProbesK != header.numProbesK){
+			throw new IllegalArgumentException("Mismatched bloom filter sizing");
+		}
+		BinaryFormat.readWords(channel, newBloomFilter.segments, SEGMENT_WORDS, newBloomFilter.numWords,
+			(header.flags & BinaryFormat.FLAG_COMPRESSED) != 0);
+		return newBloomFilter;
+	}
+}
@@ -0,0 +1,299 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+
+import org.json.JSONException;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Layout;
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.probegenerators.BloomFilterProbeGenerators;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterLongProbeConsumer;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterLongProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.MurmurProbeGenerator;
+
+/**
+ * BloomFilter whose words live in a memory mapped file: a 128 byte header
+ * followed by the words as little endian longs. Opening a file only reads
+ * the header, the words are paged in by the OS as they are probed, and
+ * JVMs that open the same file read only share one copy in the page cache.
+ *
+ * Not thread safe for concurrent adds.
+ */
+public class MappedBloomFilter implements IMutableMembershipFilter {
+	static final int MAGIC = 0x4D4D4C42; //"BLMM" in little endian
+	static final byte FORMAT_VERSION = 1;
+	static final int HEADER_BYTES = 128;
+
+	private static final int MAX_GEN_BYTES = 64;
+	private static final int REGION_SHIFT = 27; //1 GB of words per mapping
+	private static final long REGION_MASK = (1L << REGION_SHIFT) - 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final long idealNumElementsN;
+	private final double errorRateP;
+
+	private final long numBitsM;
+	private final int numProbesK;
+	private final long numWords;
+	private final boolean readOnly;
+	private final MappedByteBuffer[] regions;
+
+	private final IBloomFilterLongProbeGenerator probeGenerator;
+
+	private final IBloomFilterLongProbeConsumer setBitConsumer = new IBloomFilterLongProbeConsumer() {
+		@Override
+		public boolean accept(long bitno) {
+			long word = bitno >>> 6;
+			setWord(word, getWord(word) | (1L << (bitno & 63)));
+			return true;
+		}
+	};
+
+	private final IBloomFilterLongProbeConsumer testBitConsumer = new IBloomFilterLongProbeConsumer() {
+		@Override
+		public boolean accept(long bitno) {
+			return (getWord(bitno >>> 6) & (1L << (bitno & 63))) != 0;
+		}
+	};
+
+	private MappedBloomFilter(long idealNumElementsN, double errorRateP, long numBitsM, int numProbesK,
+			IBloomFilterLongProbeGenerator probeGenerator, boolean readOnly, MappedByteBuffer[] regions) {
+		this.idealNumElementsN = idealNumElementsN;
+		this.errorRateP = errorRateP;
+		this.numBitsM = numBitsM;
+		this.numProbesK = numProbesK;
+		this.numWords = (numBitsM + 63) / 64;
+		this.probeGenerator = probeGenerator;
+		this.readOnly = readOnly;
+		this.regions = regions;
+	}
+
+	public static MappedBloomFilter create(File file, long idealNumElementsN, double errorRateP) throws IOException {
+		return create(file, idealNumElementsN, errorRateP, null);
+	}
+
+	/**
+	 * Creates (or overwrites) file holding an empty filter and maps it for
+	 * reading and writing.
+	 */
+	public static MappedBloomFilter create(File file, long idealNumElementsN, double errorRateP,
+			IBloomFilterLongProbeGenerator probeGenerator) throws IOException {
+		if(idealNumElementsN <= 0){
+			throw new IllegalArgumentException("idealNumElementsN must be > 0");
+		}
+		if(!(0 < errorRateP &&  errorRateP < 1)){
+			throw new IllegalArgumentException("errorRateP must be between 0 and 1 exclusive");
+		}
+		if(probeGenerator == null){
+			probeGenerator = new MurmurProbeGenerator();
+		}
+
+		long numBitsM = BloomFilter.calculateLongNumBitsM(idealNumElementsN, errorRateP);
+		int numProbesK = BloomFilter.calculateNumProbesK(idealNumElementsN, numBitsM);
+		long numWords = (numBitsM + 63) / 64;
+
+		byte[] gen = probeGenerator.getName().getBytes(UTF8);
+		if(gen.length > MAX_GEN_BYTES){
+			throw new IllegalArgumentException("ProbeGenerator name too long: "+probeGenerator.getName());
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.put(FORMAT_VERSION);
+		header.put((byte)Layout.STANDARD.ordinal());
+		header.putShort((short)0);
+		header.putLong(idealNumElementsN);
+		header.putDouble(errorRateP);
+		header.putInt(numProbesK);
+		header.putInt(gen.length);
+		header.putLong(numBitsM);
+		header.putLong(numWords);
+		header.put(gen);
+		header.clear();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try{
+			FileChannel channel = raf.getChannel();
+			channel.truncate(0);
+			raf.setLength(HEADER_BYTES + numWords * 8);
+			BinaryFormat.writeFully(channel.position(0), header);
+			return new MappedBloomFilter(idealNumElementsN, errorRateP, numBitsM, numProbesK,
+				probeGenerator, false, map(channel, numWords, false));
+		}
+		finally{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Maps an existing filter file. Only the header is read; the cost does
+	 * not depend on the size of the filter.
+	 */
+	public static MappedBloomFilter open(File file, boolean readOnly) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, readOnly ? "r" : "rw");
+		try{
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			BinaryFormat.readFully(channel, header);
+			header.flip();
+
+			if(header.getInt() != MAGIC){
+				throw new IllegalArgumentException("Invalid MappedBloomFilter file structure");
+			}
+			if(header.get() != FORMAT_VERSION){
+				throw new IllegalArgumentException("Incompatible MappedBloomFilter version");
+			}
+			if(header.get() != Layout.STANDARD.ordinal()){
+				throw new IllegalArgumentException("Unsupported layout");
+			}
+			header.getShort();
+			long idealNumElementsN = header.getLong();
+			double errorRateP = header.getDouble();
+			int numProbesK = header.getInt();
+			int genLength = header.getInt();
+			long numBitsM = header.getLong();
+			long numWords = header.getLong();
+			if(genLength < 0 || genLength > MAX_GEN_BYTES || numWords != (numBitsM + 63) / 64 ||
+					channel.size() < HEADER_BYTES + numWords * 8){
+				throw new IllegalArgumentException("Invalid MappedBloomFilter file structure");
+			}
+			byte[] gen = new byte[genLength];
+			header.get(gen);
+
+			IBloomFilterProbeGenerator probeGenerator =
+				BloomFilterProbeGenerators.getProbeGenerator(new String(gen, UTF8));
+			if(!(probeGenerator instanceof IBloomFilterLongProbeGenerator)){
+				throw new IllegalArgumentException("ProbeGenerator does not support long probes: "+probeGenerator.getName());
+			}
+
+			return new MappedBloomFilter(idealNumElementsN, errorRateP, numBitsM, numProbesK,
+				(IBloomFilterLongProbeGenerator)probeGenerator, readOnly, map(channel, numWords, readOnly));
+		}
+		finally{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes the words of bfilter to a new mapped file.
+	 */
+	public static MappedBloomFilter fromBloomFilter(File file, BloomFilter bfilter) throws IOException {
+		if(bfilter.getLayout() != Layout.STANDARD){
+			throw new IllegalArgumentException("Unsupported layout: "+bfilter.getLayout());
+		}
+		if(!(bfilter.getProbeGenerator() instanceof IBloomFilterLongProbeGenerator)){
+			throw new IllegalArgumentException("ProbeGenerator does not support long probes: "+bfilter.getProbeGenerator().getName());
+		}
+		MappedBloomFilter result = create(file, bfilter.getIdealNumberOfElements(), bfilter.getErrorRate(),
+			(IBloomFilterLongProbeGenerator)bfilter.getProbeGenerator());
+		long[] words = bfilter.readWords();
+		for(int i = 0; i < words.length; i++){
+			result.setWord(i, words[i]);
+		}
+		return result;
+	}
+
+	public static MappedBloomFilter fromJSON(File file, String jsonString) throws IOException, DataFormatException {
+		return fromBloomFilter(file, BloomFilter.fromJSON(jsonString));
+	}
+
+	/**
+	 * Copies the filter onto the heap. Only possible when it has at most
+	 * Integer.MAX_VALUE bits.
+	 */
+	public BloomFilter toBloomFilter(){
+		BloomFilter result = new BloomFilter(
+			this.idealNumElementsN, this.errorRateP, this.probeGenerator);
+		long[] words = result.getWords();
+		for(int i = 0; i < words.length; i++){
+			words[i] = getWord(i);
+		}
+		return result;
+	}
+
+	public String toJSON() throws JSONException, IOException{
+		return toBloomFilter().toJSON();
+	}
+
+	public String toJSON(boolean compressed) throws JSONException, IOException{
+		return toBloomFilter().toJSON(compressed);
+	}
+
+	public long getIdealNumberOfElements(){
+		return this.idealNumElementsN;
+	}
+
+	public double getErrorRate(){
+		return this.errorRateP;
+	}
+
+	public int getNumberOfProbes(){
+		return this.numProbesK;
+	}
+
+	public long getNumberOfBits(){
+		return this.numBitsM;
+	}
+
+	public IBloomFilterLongProbeGenerator getProbeGenerator(){
+		return this.probeGenerator;
+	}
+
+	public boolean isReadOnly(){
+		return this.readOnly;
+	}
+
+	public void add(String key){
+		if(this.readOnly){
+			throw new IllegalStateException("MappedBloomFilter is read only");
+		}
+		this.probeGenerator.forEachLongProbe(this.numProbesK, this.numBitsM, key, this.setBitConsumer);
+	}
+
+	public Result contains(String key){
+		boolean allSet = this.probeGenerator.forEachLongProbe(
+			this.numProbesK, this.numBitsM, key, this.testBitConsumer);
+		return allSet ? Result.MAYBE : Result.NO;
+	}
+
+	/**
+	 * Writes changed pages back to the file.
+	 */
+	public void force(){
+		if(!this.readOnly){
+			for(MappedByteBuffer region : this.regions){
+				region.force();
+			}
+		}
+	}
+
+	private long getWord(long word){
+		return this.regions[(int)(word >>> REGION_SHIFT)].getLong((int)(word & REGION_MASK) << 3);
+	}
+
+	private void setWord(long word, long value){
+		this.regions[(int)(word >>> REGION_SHIFT)].putLong((int)(word & REGION_MASK) << 3, value);
+	}
+
+	private static MappedByteBuffer[] map(FileChannel channel, long numWords, boolean readOnly) throws IOException{
+		FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+		int numRegions = (int)((numWords + REGION_MASK) >>> REGION_SHIFT);
+		MappedByteBuffer[] regions = new MappedByteBuffer[numRegions];
+		for(int i = 0; i < numRegions; i++){
+			long firstWord = (long)i << REGION_SHIFT;
+			long words = Math.min(1L << REGION_SHIFT, numWords - firstWord);
+			regions[i] = channel.map(mode, HEADER_BYTES + firstWord * 8, words * 8);
+			regions[i].order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return regions;
+	}
+}
@@ -0,0 +1,185 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Layout;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.MurmurProbeGenerator;
+
+/**
+ * Builds a BloomFilter from a large key source on a ForkJoinPool. The source
+ * is split across the workers, every worker thread fills a filter of its own
+ * and the filters are ORed together at the end, so the result is identical
+ * to adding every key to one filter. Memory use is one filter per worker.
+ */
+public class ParallelBloomFilterBuilder {
+	static final int LEAF_KEYS = 1 << 14;
+	private static final int MERGE_WORDS = 1 << 16;
+
+	private final long idealNumElementsN;
+	private final double errorRateP;
+	private final IBloomFilterProbeGenerator probeGenerator;
+	private final Layout layout;
+	private final ForkJoinPool pool;
+
+	public ParallelBloomFilterBuilder(long idealNumElementsN, double errorRateP) {
+		this(idealNumElementsN, errorRateP, null, Layout.STANDARD, ForkJoinPool.commonPool());
+	}
+
+	public ParallelBloomFilterBuilder(long idealNumElementsN, double errorRateP, IBloomFilterProbeGenerator probeGenerator,
+			Layout layout, ForkJoinPool pool) {
+		if(idealNumElementsN <= 0){
+			throw new IllegalArgumentException("idealNumElementsN must be > 0");
+		}
+		if(!(0 < errorRateP &&  errorRateP < 1)){
+			throw new IllegalArgumentException("errorRateP must be between 0 and 1 exclusive");
+		}
+		this.idealNumElementsN = idealNumElementsN;
+		this.errorRateP = errorRateP;
+		//Shared by all workers, the generators are thread safe
+		this.probeGenerator = (
+				probeGenerator != null ?
+						probeGenerator :
+						new MurmurProbeGenerator());
+		this.layout = layout;
+		this.pool = pool;
+	}
+
+	public BloomFilter build(Stream<String> keys){
+		return build(keys.spliterator());
+	}
+
+	/**
+	 * Reads one key per line.
+	 */
+	public BloomFilter build(Path file, Charset charset) throws IOException{
+		try(Stream<String> lines = Files.lines(file, charset)){
+			return build(lines);
+		}
+	}
+
+	public BloomFilter build(Spliterator<String> keys){
+		Map<Thread, BloomFilter> filters = new ConcurrentHashMap<>();
+		this.pool.invoke(new FillTask(keys, filters));
+
+		Iterator<BloomFilter> it = filters.values().iterator();
+		if(!it.hasNext()){
+			return newFilter();
+		}
+		BloomFilter result = it.next();
+		List<long[]> others = new ArrayList<>();
+		while(it.hasNext()){
+			others.add(it.next().readWords());
+		}
+		if(!others.isEmpty()){
+			long[] words = result.getWords();
+			this.pool.invoke(new MergeTask(result, words, others, result.nextVersion(), 0, words.length));
+		}
+		return result;
+	}
+
+	private BloomFilter newFilter(){
+		return new BloomFilter(this.idealNumElementsN, this.errorRateP, this.probeGenerator, this.layout);
+	}
+
+	private final class FillTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Spliterator<String> keys;
+		private final Map<Thread, BloomFilter> filters;
+
+		FillTask(Spliterator<String> keys, Map<Thread, BloomFilter> filters){
+			this.keys = keys;
+			this.filters = filters;
+		}
+
+		@Override
+		protected void compute(){
+			List<FillTask> forked = new ArrayList<>();
+			Spliterator<String> split;
+			while(this.keys.estimateSize() > LEAF_KEYS && (split = this.keys.trySplit()) != null){
+				FillTask task = new FillTask(split, this.filters);
+				task.fork();
+				forked.add(task);
+			}
+
+			//Only the current thread ever writes to its filter
+			BloomFilter filter = this.filters.computeIfAbsent(Thread.currentThread(), t -> newFilter());
+			List<String> batch = new ArrayList<>(LEAF_KEYS);
+			this.keys.forEachRemaining(key -> {
+				batch.add(key);
+				if(batch.size() == LEAF_KEYS){
+					filter.addAll(batch);
+					batch.clear();
+				}
+			});
+			filter.addAll(batch);
+
+			for(FillTask task : forked){
+				task.join();
+			}
+		}
+	}
+
+	/**
+	 * ORs others into the words of result over [from, to), the same as 
+	 * union: the delta blocks that change are stamped with version, so 
+	 * deltas of result hold the bits of every worker.
+	 */
+	private static final class MergeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final BloomFilter result;
+		private final long[] words;
+		private final List<long[]> others;
+		private final long version;
+		private final int from;
+		private final int to;
+
+		MergeTask(BloomFilter result, long[] words, List<long[]> others, long version, int from, int to){
+			this.result = result;
+			this.words = words;
+			this.others = others;
+			this.version = version;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute(){
+			if(this.to - this.from > MERGE_WORDS){
+				//Split on a delta block boundary, so no two tasks stamp the same block
+				int mid = ((this.from + this.to) >>> 1) & ~(BloomFilter.DELTA_BLOCK_WORDS - 1);
+				invokeAll(new MergeTask(this.result, this.words, this.others, this.version, this.from, mid),
+					new MergeTask(this.result, this.words, this.others, this.version, mid, this.to));
+				return;
+			}
+			for(int block = this.from; block < this.to; block += BloomFilter.DELTA_BLOCK_WORDS){
+				int end = Math.min(this.to, block + BloomFilter.DELTA_BLOCK_WORDS);
+				boolean changed = false;
+				for(long[] other : this.others){
+					for(int i = block; i < end; i++){
+						long merged = this.words[i] | other[i];
+						changed |= merged != this.words[i];
+						this.words[i] = merged;
+					}
+				}
+				if(changed){
+					this.result.stampWord(block, this.version);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.MurmurProbeGenerator;
+
+/**
+ * Chain of BloomFilter stages that grows with the number of keys (Almeida
+ * et al., "Scalable Bloom Filters"). Stage i holds
+ * initialCapacity * growth^i keys at error rate
+ * errorRateP * (1 - tightening) * tightening^i, so the error rates of all
+ * stages, however many, add up to at most errorRateP.
+ *
+ * Keys go to the newest stage, until its fill ratio reaches MAX_FILL_RATIO.
+ * With the optimal number of probes its false positive rate is then
+ * 0.5^k, the error rate of the stage. Going by the bits set rather than
+ * a count of keys keeps that right for chains restored from JSON. Not
+ * thread safe.
+ */
+public class ScalableBloomFilter implements IMutableMembershipFilter {
+	public static final double DEFAULT_GROWTH = 2;
+	public static final double DEFAULT_TIGHTENING = 0.5;
+	public static final double MAX_FILL_RATIO = 0.5;
+
+	private final long initialCapacity;
+	private final double errorRateP;
+	private final double growth;
+	private final double tightening;
+	private final IBloomFilterProbeGenerator probeGenerator;
+
+	private final List<BloomFilter> stages = new ArrayList<BloomFilter>();
+
+	public ScalableBloomFilter(long initialCapacity, double errorRateP) {
+		this(initialCapacity, errorRateP, null, DEFAULT_GROWTH, DEFAULT_TIGHTENING);
+	}
+
+	public ScalableBloomFilter(long initialCapacity, double errorRateP, IBloomFilterProbeGenerator probeGenerator,
+			double growth, double tightening) {
+		if(initialCapacity <= 0){
+			throw new IllegalArgumentException("initialCapacity must be > 0");
+		}
+		if(!(0 < errorRateP &&  errorRateP < 1)){
+			throw new IllegalArgumentException("errorRateP must be between 0 and 1 exclusive");
+		}
+		if(!(growth >= 1)){
+			throw new IllegalArgumentException("growth must be >= 1");
+		}
+		if(!(0 < tightening &&  tightening < 1)){
+			throw new IllegalArgumentException("tightening must be between 0 and 1 exclusive");
+		}
+
+		this.initialCapacity = initialCapacity;
+		this.errorRateP = errorRateP;
+		this.growth = growth;
+		this.tightening = tightening;
+		this.probeGenerator = (
+				probeGenerator != null ?
+						probeGenerator :
+						new MurmurProbeGenerator());
+
+		addStage();
+	}
+
+	public double getErrorRate(){
+		return this.errorRateP;
+	}
+
+	public IBloomFilterProbeGenerator getProbeGenerator(){
+		return this.probeGenerator;
+	}
+
+	public int getNumberOfStages(){
+		return this.stages.size();
+	}
+
+	/**
+	 * @return the stages, oldest first.
+	 */
+	public List<BloomFilter> getStages(){
+		return Collections.unmodifiableList(this.stages);
+	}
+
+	/**
+	 * Adds key, unless one of the stages may hold it already.
+	 */
+	public void add(String key){
+		if(contains(key) == Result.MAYBE){
+			return;
+		}
+		BloomFilter current = this.stages.get(this.stages.size() - 1);
+		if(current.getFillRatio() >= MAX_FILL_RATIO){
+			current = addStage();
+		}
+		current.add(key);
+	}
+
+	/**
+	 * Checks the newest stage first, as it holds the most keys.
+	 */
+	public Result contains(String key){
+		for(int i = this.stages.size() - 1; i >= 0; i--){
+			if(this.stages.get(i).contains(key) == Result.MAYBE){
+				return Result.MAYBE;
+			}
+		}
+		return Result.NO;
+	}
+
+	public String toJSON() throws JSONException, IOException{
+		return toJSON(true);
+	}
+
+	/**
+	 * @return a JSON list holding the BloomFilter JSON of every stage, oldest
+	 *         first.
+	 */
+	public String toJSON(boolean compressed) throws JSONException, IOException{
+		JSONArray result = new JSONArray();
+		for(BloomFilter stage : this.stages){
+			result.put(new JSONObject(stage.toJSON(compressed)));
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Restores a chain written by toJSON. Growth and tightening are taken
+	 * from the first two stages.
+	 */
+	public static ScalableBloomFilter fromJSON(String jsonString) throws IOException, DataFormatException{
+		JSONArray json = new JSONArray(jsonString);
+		if(json.length() == 0){
+			throw new IllegalArgumentException("Invalid ScalableBloomFilter JSON structure");
+		}
+		List<BloomFilter> stages = new ArrayList<BloomFilter>();
+		for(int i = 0; i < json.length(); i++){
+			stages.add(BloomFilter.fromJSON(json.getJSONObject(i).toString()));
+		}
+
+		BloomFilter first = stages.get(0);
+		double growth = DEFAULT_GROWTH;
+		double tightening = DEFAULT_TIGHTENING;
+		if(stages.size() > 1){
+			BloomFilter second = stages.get(1);
+			growth = (double)second.getIdealNumberOfElements() / first.getIdealNumberOfElements();
+			tightening = second.getErrorRate() / first.getErrorRate();
+		}
+		double errorRateP = first.getErrorRate() / (1 - tightening);
+
+		ScalableBloomFilter result = new ScalableBloomFilter(first.getIdealNumberOfElements(), errorRateP,
+			first.getProbeGenerator(), growth, tightening);
+		result.stages.clear();
+		for(BloomFilter stage : stages){
+			if(!stage.getProbeGenerator().getName().equals(first.getProbeGenerator().getName())){
+				throw new IllegalArgumentException("Mismatched bloom filters");
+			}
+			result.stages.add(stage);
+		}
+		return result;
+	}
+
+	private BloomFilter addStage(){
+		int stage = this.stages.size();
+		long capacity = (long)Math.ceil(this.initialCapacity * Math.pow(this.growth, stage));
+		double errorRate = this.errorRateP * (1 - this.tightening) * Math.pow(this.tightening, stage);
+		BloomFilter result = new BloomFilter(capacity, errorRate, this.probeGenerator);
+		this.stages.add(result);
+		return result;
+	}
+}
@@ -0,0 +1,118 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.util.Arrays;
+
+/**
+ * Set of bit numbers for BloomFilters holding few keys: an open addressing
+ * hash table of ints, kept at most half full.
+ */
+final class SparseBits {
+	private static final int EMPTY = -1;
+
+	private int[] table;
+	private int mask;
+	private int shift;
+	private int size;
+
+	SparseBits(){
+		this(16);
+	}
+
+	/**
+	 * @param capacity
+	 *            power of two
+	 */
+	private SparseBits(int capacity){
+		this.table = new int[capacity];
+		Arrays.fill(this.table, EMPTY);
+		this.mask = capacity - 1;
+		this.shift = 32 - Integer.numberOfTrailingZeros(capacity);
+	}
+
+	int size(){
+		return this.size;
+	}
+
+	/**
+	 * @return true if bitno was not in the set yet.
+	 */
+	boolean add(int bitno){
+		int slot = slot(bitno);
+		while(true){
+			int current = this.table[slot];
+			if(current == bitno){
+				return false;
+			}
+			if(current == EMPTY){
+				break;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		this.table[slot] = bitno;
+		if(++this.size > (this.table.length >>> 1)){
+			grow();
+		}
+		return true;
+	}
+
+	boolean contains(int bitno){
+		int slot = slot(bitno);
+		while(true){
+			int current = this.table[slot];
+			if(current == bitno){
+				return true;
+			}
+			if(current == EMPTY){
+				return false;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+	}
+
+	int[] toSortedArray(){
+		int[] result = new int[this.size];
+		int count = 0;
+		for(int bitno : this.table){
+			if(bitno != EMPTY){
+				result[count++] = bitno;
+			}
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * @return the bits packed 64 per word, like BloomFilter keeps them.
+	 */
+	long[] toWords(int numWords){
+		long[] result = new long[numWords];
+		for(int bitno : this.table){
+			if(bitno != EMPTY){
+				result[bitno >>> 6] |= 1L << (bitno & 63);
+			}
+		}
+		return result;
+	}
+
+	private int slot(int bitno){
+		//Fibonacci hashing, so the nearby bits of a blocked layout spread out
+		return (bitno * 0x9E3779B9) >>> this.shift;
+	}
+
+	private void grow(){
+		int[] old = this.table;
+		this.table = new int[old.length << 1];
+		Arrays.fill(this.table, EMPTY);
+		this.mask = this.table.length - 1;
+		this.shift--;
+		for(int bitno : old){
+			if(bitno != EMPTY){
+				int slot = slot(bitno);
+				while(this.table[slot] != EMPTY){
+					slot = (slot + 1) & this.mask;
+				}
+				this.table[slot] = bitno;
+			}
+		}
+	}
+}
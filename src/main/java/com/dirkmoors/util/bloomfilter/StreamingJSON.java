@@ -0,0 +1,505 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterOutputStream;
+
+import org.apache.commons.codec.binary.Base64OutputStream;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.json.JSONObject;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Layout;
+import com.dirkmoors.util.bloomfilter.probegenerators.BloomFilterProbeGenerators;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeGenerator;
+
+/**
+ * Streaming implementation of the BloomFilter JSON format. Words are turned
+ * into wire bytes a chunk at a time and piped through the SHA-256 digest,
+ * Deflater and Base64 codec, so neither direction holds the payload in
+ * memory.
+ */
+final class StreamingJSON {
+	private static final String DATA_PLACEHOLDER = "@data@";
+	private static final int CHUNK_WIRE_WORDS = 1 << 13; //64 KB of wire bytes
+	private static final int BUFFER_CHARS = 1 << 13;
+
+	private StreamingJSON(){}
+
+	static void write(BloomFilter bfilter, Writer writer, boolean compressed) throws IOException{
+		long[] words = bfilter.readWords();
+		int numWireWords = BloomFilter.calculateNumWireWords(bfilter.getNumberOfBits());
+
+		//The hash precedes the data in the output, so it takes a pass of its own
+		MessageDigest digest = DigestUtils.getSha256Digest();
+		byte[] chunk = new byte[CHUNK_WIRE_WORDS * 8];
+		for(int i = 0; i < numWireWords; i += CHUNK_WIRE_WORDS){
+			int count = Math.min(CHUNK_WIRE_WORDS, numWireWords - i);
+			BloomFilter.packedToWireBytes(words, i, count, chunk);
+			digest.update(chunk, 0, count * 8);
+		}
+		String dataHash = Hex.encodeHexString(digest.digest());
+
+		//Let JSONObject lay out everything but the data, so the field order
+		//and number formatting match toJSON exactly
+		String template = bfilter.toJSONObject(compressed, DATA_PLACEHOLDER, dataHash).toString();
+		String quotedPlaceholder = JSONObject.quote(DATA_PLACEHOLDER);
+		int dataStart = template.indexOf(quotedPlaceholder) + 1;
+		int dataEnd = dataStart + DATA_PLACEHOLDER.length();
+		writer.write(template, 0, dataStart);
+
+		Deflater deflater = compressed ? new Deflater() : null;
+		try{
+			OutputStream out = new Base64OutputStream(new AsciiOutputStream(writer), true, 0, null);
+			if(compressed){
+				out = new DeflaterOutputStream(out, deflater, chunk.length);
+			}
+			for(int i = 0; i < numWireWords; i += CHUNK_WIRE_WORDS){
+				int count = Math.min(CHUNK_WIRE_WORDS, numWireWords - i);
+				BloomFilter.packedToWireBytes(words, i, count, chunk);
+				out.write(chunk, 0, count * 8);
+			}
+			out.close();
+		}
+		finally{
+			if(deflater != null){
+				deflater.end();
+			}
+		}
+
+		writer.write(template, dataEnd, template.length() - dataEnd);
+	}
+
+	static BloomFilter read(Reader reader) throws IOException, DataFormatException{
+		Tokenizer tokenizer = new Tokenizer(reader);
+		String version = null;
+		long idealNumElementsN = -1;
+		double errorRateP = -1;
+		boolean compressed = false;
+		boolean compressedKnown = false;
+		String dataHash = null;
+		String gen = null;
+		String layoutName = Layout.STANDARD.name();
+		WireWordSink sink = null;
+		String bufferedData = null;
+		String bits = null;
+		long filterVersion = 0;
+
+		tokenizer.expect('{');
+		if(tokenizer.peek() == '}'){
+			tokenizer.next();
+		}
+		else{
+			while(true){
+				String key = tokenizer.readString();
+				tokenizer.expect(':');
+				if(key.equals("data") && tokenizer.peek() == '"'){
+					if(compressedKnown && idealNumElementsN > 0 && 0 < errorRateP && errorRateP < 1){
+						sink = new WireWordSink(BloomFilter.calculateNumWords(BloomFilter.calculateNumBitsM(
+							idealNumElementsN, errorRateP, Layout.valueOf(layoutName))));
+						OutputStream out = decoder(sink, compressed);
+						tokenizer.readString(out);
+						out.close();
+					}
+					else{
+						bufferedData = tokenizer.readString();
+					}
+				}
+				else{
+					Object value = tokenizer.readValue();
+					if(key.equals("v")){
+						version = value instanceof String ? (String)value : null;
+					}
+					else if(key.equals("n")){
+						idealNumElementsN = toNumber(value, -1).longValue();
+					}
+					else if(key.equals("p")){
+						errorRateP = toNumber(value, -1).doubleValue();
+					}
+					else if(key.equals("zlib")){
+						compressed = Boolean.TRUE.equals(value) ||
+							(value instanceof String && ((String)value).equalsIgnoreCase("true"));
+						compressedKnown = true;
+					}
+					else if(key.equals("hash")){
+						dataHash = value instanceof String ? (String)value : null;
+					}
+					else if(key.equals("gen")){
+						gen = value instanceof String ? (String)value : null;
+					}
+					else if(key.equals("layout") && value instanceof String){
+						layoutName = (String)value;
+					}
+					else if(key.equals("bits") && value instanceof String){
+						bits = (String)value;
+					}
+					else if(key.equals("version")){
+						filterVersion = toNumber(value, -1).longValue();
+					}
+				}
+				if(tokenizer.next() == '}'){
+					break;
+				}
+				tokenizer.back();
+				tokenizer.expect(',');
+			}
+		}
+
+		if(version == null || idealNumElementsN == -1 || errorRateP == -1 ||
+				(sink == null && bufferedData == null && bits == null) || dataHash == null || gen == null){
+			throw new IllegalArgumentException("Invalid BloomFilter JSON structure");
+		}
+
+		if(!version.equals(BloomFilter.VERSION)){
+			throw new IllegalArgumentException("Incompatible BloomFilter version");
+		}
+
+		Layout layout = Layout.valueOf(layoutName);
+		if(sink == null && bufferedData == null){
+			//Sparse filters are small, so their bits are simply buffered
+			return BloomFilter.withSparseBits(idealNumElementsN, errorRateP, 
+				BloomFilterProbeGenerators.getProbeGenerator(gen), layout, compressed, bits, dataHash, filterVersion);
+		}
+		int numWords = BloomFilter.calculateNumWords(
+			BloomFilter.calculateNumBitsM(idealNumElementsN, errorRateP, layout));
+		if(sink == null){
+			sink = new WireWordSink(numWords);
+			OutputStream out = decoder(sink, compressed);
+			for(int i = 0; i < bufferedData.length(); i++){
+				out.write(bufferedData.charAt(i));
+			}
+			out.close();
+		}
+
+		if(!sink.getHash().equals(dataHash)){
+			throw new IllegalArgumentException("Data integrity error");
+		}
+
+		IBloomFilterProbeGenerator probeGenerator =
+			BloomFilterProbeGenerators.getProbeGenerator(gen);
+
+		BloomFilter result = BloomFilter.withWords(idealNumElementsN, errorRateP, probeGenerator, layout,
+			sink.toWords(numWords));
+		result.startAt(filterVersion);
+		return result;
+	}
+
+	private static OutputStream decoder(WireWordSink sink, boolean compressed){
+		OutputStream out = sink;
+		if(compressed){
+			out = new InflaterOutputStream(out);
+		}
+		return new Base64OutputStream(out, false);
+	}
+
+	private static Number toNumber(Object value, long defaultValue){
+		if(value instanceof Number){
+			return (Number)value;
+		}
+		if(value instanceof String){
+			try{
+				return Double.valueOf((String)value);
+			}
+			catch(NumberFormatException e){
+				//Fall through to the default, as JSONObject.opt* does
+			}
+		}
+		return Long.valueOf(defaultValue);
+	}
+
+	/**
+	 * Writes each byte as a char. Used for Base64 output, which is ASCII.
+	 */
+	private static final class AsciiOutputStream extends OutputStream {
+		private final Writer writer;
+		private final char[] buffer = new char[BUFFER_CHARS];
+
+		AsciiOutputStream(Writer writer){
+			this.writer = writer;
+		}
+
+		@Override
+		public void write(int b) throws IOException{
+			this.writer.write(b & 0xFF);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException{
+			while(len > 0){
+				int count = Math.min(len, this.buffer.length);
+				for(int i = 0; i < count; i++){
+					this.buffer[i] = (char)(b[off + i] & 0xFF);
+				}
+				this.writer.write(this.buffer, 0, count);
+				off += count;
+				len -= count;
+			}
+		}
+
+		@Override
+		public void close(){
+			//The writer belongs to the caller
+		}
+	}
+
+	/**
+	 * Receives wire bytes (big endian longs holding 32 bits each), hashes
+	 * them and packs them 64 bits per word. Words go straight into an array
+	 * of the expected size; anything beyond it spills into extra chunks.
+	 */
+	private static final class WireWordSink extends OutputStream {
+		private static final int SPILL_WORDS = 1 << 17;
+
+		private final MessageDigest digest = DigestUtils.getSha256Digest();
+		private final List<long[]> chunks = new ArrayList<long[]>();
+		private long[] current;
+		private long currentStart = 0;
+		private long wireWord = 0;
+		private long pending = 0;
+		private int pendingBytes = 0;
+
+		WireWordSink(int expectedWords){
+			this.current = new long[Math.max(expectedWords, 1)];
+			this.chunks.add(this.current);
+		}
+
+		@Override
+		public void write(int b){
+			this.digest.update((byte)b);
+			append(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len){
+			this.digest.update(b, off, len);
+			for(int i = off; i < off + len; i++){
+				append(b[i]);
+			}
+		}
+
+		private void append(int b){
+			this.pending = (this.pending << 8) | (b & 0xFF);
+			if(++this.pendingBytes < 8){
+				return;
+			}
+			long word = (this.wireWord >>> 1) - this.currentStart;
+			if(word >= this.current.length){
+				this.currentStart += this.current.length;
+				this.current = new long[SPILL_WORDS];
+				this.chunks.add(this.current);
+				word = 0;
+			}
+			this.current[(int)word] |= (this.pending & 0xFFFFFFFFL) << ((this.wireWord & 1) << 5);
+			this.wireWord++;
+			this.pending = 0;
+			this.pendingBytes = 0;
+		}
+
+		String getHash(){
+			return Hex.encodeHexString(this.digest.digest());
+		}
+
+		/**
+		 * @return the words, truncated or zero padded to numWords like
+		 *         fromJSON(String) does.
+		 */
+		long[] toWords(int numWords){
+			long[] first = this.chunks.get(0);
+			if(this.chunks.size() == 1 && first.length == numWords){
+				return first;
+			}
+			long[] result = new long[numWords];
+			int offset = 0;
+			for(long[] chunk : this.chunks){
+				int count = Math.min(chunk.length, numWords - offset);
+				if(count <= 0){
+					break;
+				}
+				System.arraycopy(chunk, 0, result, offset, count);
+				offset += count;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Minimal pull parser for the flat JSON object BloomFilter writes.
+	 */
+	private static final class Tokenizer {
+		private final Reader reader;
+		private final char[] buffer = new char[BUFFER_CHARS];
+		private int position = 0;
+		private int limit = 0;
+
+		Tokenizer(Reader reader){
+			this.reader = reader;
+		}
+
+		char next() throws IOException{
+			char c;
+			do{
+				c = nextRaw();
+			}
+			while(Character.isWhitespace(c));
+			return c;
+		}
+
+		char peek() throws IOException{
+			char c = next();
+			back();
+			return c;
+		}
+
+		void back(){
+			this.position--;
+		}
+
+		void expect(char expected) throws IOException{
+			if(next() != expected){
+				throw new IllegalArgumentException("Invalid BloomFilter JSON structure");
+			}
+		}
+
+		private char nextRaw() throws IOException{
+			if(this.position == this.limit){
+				int count = this.reader.read(this.buffer, 0, this.buffer.length);
+				if(count <= 0){
+					throw new IllegalArgumentException("Invalid BloomFilter JSON structure");
+				}
+				this.position = 0;
+				this.limit = count;
+			}
+			return this.buffer[this.position++];
+		}
+
+		String readString() throws IOException{
+			StringBuilder sb = new StringBuilder();
+			expect('"');
+			char c;
+			while((c = nextRaw()) != '"'){
+				sb.append(c == '\\' ? unescape() : c);
+			}
+			return sb.toString();
+		}
+
+		/**
+		 * Streams a string value to out, one byte per char. Chars outside
+		 * Latin-1 cannot be Base64 and are dropped.
+		 */
+		void readString(OutputStream out) throws IOException{
+			byte[] bytes = new byte[BUFFER_CHARS];
+			int count = 0;
+			expect('"');
+			char c;
+			while((c = nextRaw()) != '"'){
+				if(c == '\\'){
+					c = unescape();
+				}
+				if(c > 0xFF){
+					continue;
+				}
+				bytes[count++] = (byte)c;
+				if(count == bytes.length){
+					out.write(bytes, 0, count);
+					count = 0;
+				}
+			}
+			out.write(bytes, 0, count);
+		}
+
+		private char unescape() throws IOException{
+			char c = nextRaw();
+			switch(c){
+			case 'b':
+				return '\b';
+			case 't':
+				return '\t';
+			case 'n':
+				return '\n';
+			case 'f':
+				return '\f';
+			case 'r':
+				return '\r';
+			case 'u':
+				char[] hex = new char[]{nextRaw(), nextRaw(), nextRaw(), nextRaw()};
+				try{
+					return (char)Integer.parseInt(new String(hex), 16);
+				}
+				catch(NumberFormatException e){
+					throw new IllegalArgumentException("Invalid BloomFilter JSON structure", e);
+				}
+			default:
+				return c;
+			}
+		}
+
+		/**
+		 * @return a String, Boolean, Long, Double or null. Nested objects and
+		 *         arrays are skipped and read as null.
+		 */
+		Object readValue() throws IOException{
+			char c = peek();
+			if(c == '"'){
+				return readString();
+			}
+			if(c == '{' || c == '['){
+				skipNested();
+				return null;
+			}
+			StringBuilder sb = new StringBuilder();
+			while(true){
+				c = nextRaw();
+				if(c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)){
+					back();
+					break;
+				}
+				sb.append(c);
+			}
+			String literal = sb.toString();
+			if(literal.equals("true")){
+				return Boolean.TRUE;
+			}
+			if(literal.equals("false")){
+				return Boolean.FALSE;
+			}
+			if(literal.equals("null")){
+				return null;
+			}
+			try{
+				if(literal.indexOf('.') < 0 && literal.indexOf('e') < 0 && literal.indexOf('E') < 0){
+					return Long.valueOf(literal);
+				}
+				return Double.valueOf(literal);
+			}
+			catch(NumberFormatException e){
+				throw new IllegalArgumentException("Invalid BloomFilter JSON structure", e);
+			}
+		}
+
+		private void skipNested() throws IOException{
+			int depth = 0;
+			do{
+				char c = next();
+				if(c == '"'){
+					back();
+					readString();
+				}
+				else if(c == '{' || c == '['){
+					depth++;
+				}
+				else if(c == '}' || c == ']'){
+					depth--;
+				}
+			}
+			while(depth > 0);
+		}
+	}
+}
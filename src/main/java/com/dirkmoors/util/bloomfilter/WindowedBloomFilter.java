@@ -0,0 +1,253 @@
+package com.dirkmoors.util.bloomfilter;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+
+/**
+ * Sliding window of keys for streaming deduplication: a ring of generations,
+ * BloomFilters that all match one template. Keys go to the current
+ * generation and contains checks every generation. Rotating moves on to the
+ * oldest generation and clears it in place, so a window never starts out
+ * empty and memory stays at numGenerations filters.
+ *
+ * A generation is rotated out after maxGenerationKeys keys, after
+ * generationMillis, or both. With time based rotation a key is remembered
+ * for at least (numGenerations - 1) * generationMillis after it was last
+ * added, and at most numGenerations * generationMillis. Not thread safe.
+ */
+public class WindowedBloomFilter implements IMutableMembershipFilter {
+	public static final String TYPE = "WINDOWED";
+
+	/**
+	 * Source of the time, in nanoseconds, for time based rotation.
+	 */
+	public static interface IClock {
+		public long nanoTime();
+	}
+
+	public static final IClock SYSTEM_CLOCK = new IClock() {
+		@Override
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+
+	private final BloomFilter[] generations;
+	private int current;
+	private long currentCount;
+
+	private final long maxGenerationKeys;
+	private final long generationMillis;
+	private final long generationNanos;
+	private final IClock clock;
+	private long generationStart;
+
+	/**
+	 * @param template
+	 *            gives the size, error rate, probe generator and layout of
+	 *            every generation; its keys are not copied
+	 * @param maxGenerationKeys
+	 *            keys per generation before rotating, 0 for no limit
+	 * @param generationMillis
+	 *            lifetime of a generation before rotating, 0 for no limit
+	 */
+	public WindowedBloomFilter(BloomFilter template, int numGenerations, long maxGenerationKeys, long generationMillis) {
+		this(template, numGenerations, maxGenerationKeys, generationMillis, SYSTEM_CLOCK);
+	}
+
+	public WindowedBloomFilter(BloomFilter template, int numGenerations, long maxGenerationKeys, long generationMillis,
+			IClock clock) {
+		this(newGenerations(template, numGenerations), maxGenerationKeys, generationMillis, clock);
+	}
+
+	/**
+	 * Takes generations as is, with the last one current.
+	 */
+	private WindowedBloomFilter(BloomFilter[] generations, long maxGenerationKeys, long generationMillis, IClock clock) {
+		if(maxGenerationKeys < 0 || generationMillis < 0){
+			throw new IllegalArgumentException("maxGenerationKeys and generationMillis must be >= 0");
+		}
+		if(clock == null){
+			throw new IllegalArgumentException("clock must not be null");
+		}
+
+		this.generations = generations;
+		this.current = generations.length - 1;
+		this.maxGenerationKeys = maxGenerationKeys;
+		this.generationMillis = generationMillis;
+		this.generationNanos = generationMillis * 1000000;
+		this.clock = clock;
+		this.generationStart = clock.nanoTime();
+	}
+
+	private static BloomFilter[] newGenerations(BloomFilter template, int numGenerations){
+		if(numGenerations < 2){
+			throw new IllegalArgumentException("numGenerations must be >= 2");
+		}
+		BloomFilter[] result = new BloomFilter[numGenerations];
+		for(int i = 0; i < numGenerations; i++){
+			result[i] = new BloomFilter(template.getIdealNumberOfElements(), template.getErrorRate(),
+				template.getProbeGenerator(), template.getLayout());
+		}
+		return result;
+	}
+
+	public int getNumberOfGenerations(){
+		return this.generations.length;
+	}
+
+	public long getMaxGenerationKeys(){
+		return this.maxGenerationKeys;
+	}
+
+	public long getGenerationMillis(){
+		return this.generationMillis;
+	}
+
+	/**
+	 * @return the number of keys added to the current generation.
+	 */
+	public long getCurrentCount(){
+		return this.currentCount;
+	}
+
+	/**
+	 * @return the generation keys are added to.
+	 */
+	public BloomFilter getCurrentGeneration(){
+		return this.generations[this.current];
+	}
+
+	/**
+	 * @return the error rate of a key checked against every generation, each
+	 *         holding its ideal number of keys.
+	 */
+	public double getErrorRate(){
+		return 1 - Math.pow(1 - this.generations[0].getErrorRate(), this.generations.length);
+	}
+
+	public void add(String key){
+		expire();
+		this.generations[this.current].add(key);
+		if(++this.currentCount == this.maxGenerationKeys){
+			rotate();
+		}
+	}
+
+	/**
+	 * Checks the newest generation first, as a duplicate is most likely
+	 * a recent key.
+	 */
+	public Result contains(String key){
+		expire();
+		for(int i = 0; i < this.generations.length; i++){
+			int generation = this.current - i;
+			if(generation < 0){
+				generation += this.generations.length;
+			}
+			if(this.generations[generation].contains(key) == Result.MAYBE){
+				return Result.MAYBE;
+			}
+		}
+		return Result.NO;
+	}
+
+	/**
+	 * Starts a new generation, forgetting the keys of the oldest one.
+	 */
+	public void rotate(){
+		this.current = (this.current + 1) % this.generations.length;
+		this.generations[this.current].clear();
+		this.currentCount = 0;
+		this.generationStart = this.clock.nanoTime();
+	}
+
+	public String toJSON() throws JSONException, IOException{
+		return toJSON(true);
+	}
+
+	/**
+	 * @return a JSON object holding the BloomFilter JSON of every generation,
+	 *         oldest first. The age of the current generation is not kept.
+	 */
+	public String toJSON(boolean compressed) throws JSONException, IOException{
+		JSONArray generations = new JSONArray();
+		for(int i = 1; i <= this.generations.length; i++){
+			BloomFilter generation = this.generations[(this.current + i) % this.generations.length];
+			generations.put(new JSONObject(generation.toJSON(compressed)));
+		}
+		JSONObject result = new JSONObject();
+		result.put("v", BloomFilter.VERSION);
+		result.put("type", TYPE);
+		result.put("maxGenerationKeys", this.maxGenerationKeys);
+		result.put("generationMillis", this.generationMillis);
+		result.put("count", this.currentCount);
+		result.put("generations", generations);
+		return result.toString();
+	}
+
+	/**
+	 * Restores a window written by toJSON; its current generation starts
+	 * its lifetime anew.
+	 */
+	public static WindowedBloomFilter fromJSON(String jsonString) throws IOException, DataFormatException{
+		return fromJSON(jsonString, SYSTEM_CLOCK);
+	}
+
+	public static WindowedBloomFilter fromJSON(String jsonString, IClock clock) throws IOException, DataFormatException{
+		JSONObject json = new JSONObject(jsonString);
+		String version = json.optString("v", null);
+		String type = json.optString("type", null);
+		long maxGenerationKeys = json.optLong("maxGenerationKeys", -1);
+		long generationMillis = json.optLong("generationMillis", -1);
+		long count = json.optLong("count", -1);
+		JSONArray generations = json.optJSONArray("generations");
+
+		if(version == null || !TYPE.equals(type) || maxGenerationKeys < 0 || generationMillis < 0 || count < 0 ||
+				generations == null || generations.length() < 2){
+			throw new IllegalArgumentException("Invalid WindowedBloomFilter JSON structure");
+		}
+		if(!version.equals(BloomFilter.VERSION)){
+			throw new IllegalArgumentException("Incompatible BloomFilter version");
+		}
+
+		BloomFilter[] restored = new BloomFilter[generations.length()];
+		for(int i = 0; i < restored.length; i++){
+			restored[i] = BloomFilter.fromJSON(generations.getJSONObject(i).toString());
+			if(!restored[i].matchTemplate(restored[0]) ||
+					!restored[i].getProbeGenerator().getName().equals(restored[0].getProbeGenerator().getName())){
+				throw new IllegalArgumentException("Mismatched bloom filters");
+			}
+		}
+
+		WindowedBloomFilter result = new WindowedBloomFilter(restored, maxGenerationKeys, generationMillis, clock);
+		result.currentCount = count;
+		return result;
+	}
+
+	/**
+	 * Rotates out the generations that outlived generationMillis; after a
+	 * quiet spell longer than the window all of them are cleared.
+	 */
+	private void expire(){
+		if(this.generationNanos == 0){
+			return;
+		}
+		long now = this.clock.nanoTime();
+		long age = now - this.generationStart;
+		long elapsed = age / this.generationNanos;
+		for(long i = 0; i < Math.min(elapsed, this.generations.length); i++){
+			rotate();
+		}
+		if(elapsed > 0){
+			//Keep to the original schedule rather than the time of this call
+			this.generationStart = now - age % this.generationNanos;
+		}
+	}
+}
@@ -9,6 +9,9 @@ public class BloomFilterProbeGenerators {
 		else if(name.equals(MurmurProbeGenerator.NAME)){
 			return new MurmurProbeGenerator();
 		}
+		else if(name.equals(Murmur3ProbeGenerator.NAME)){
+			return new Murmur3ProbeGenerator();
+		}
 		throw new IllegalArgumentException("Unknown ProbeGenerator: "+name);
 	}
 }
@@ -0,0 +1,12 @@
+package com.dirkmoors.util.bloomfilter.probegenerators;
+
+public interface IBloomFilterLongProbeConsumer {
+	/**
+	 * Receives the next bit index produced by a probe generator.
+	 * 
+	 * @param bitno
+	 *            long, in the interval [0, numBitsM)
+	 * @return true to receive the next probe, false to stop probing.
+	 */
+	public boolean accept(long bitno);
+}
@@ -0,0 +1,14 @@
+package com.dirkmoors.util.bloomfilter.probegenerators;
+
+/**
+ * Probe generator that can address filters of more than 2^31 bits.
+ */
+public interface IBloomFilterLongProbeGenerator extends IBloomFilterProbeGenerator {
+	/**
+	 * Same as forEachProbe, for numBitsM up to Long.MAX_VALUE. For numBitsM
+	 * that fit an int the probes are identical to those of forEachProbe.
+	 * 
+	 * @return false if the consumer stopped probing early, true otherwise.
+	 */
+	public boolean forEachLongProbe(int numProbesK, long numBitsM, String data, IBloomFilterLongProbeConsumer consumer);
+}
@@ -0,0 +1,12 @@
+package com.dirkmoors.util.bloomfilter.probegenerators;
+
+public interface IBloomFilterProbeConsumer {
+	/**
+	 * Receives the next bit index produced by a probe generator.
+	 * 
+	 * @param bitno
+	 *            int, in the interval [0, numBitsM)
+	 * @return true to receive the next probe, false to stop probing.
+	 */
+	public boolean accept(int bitno);
+}
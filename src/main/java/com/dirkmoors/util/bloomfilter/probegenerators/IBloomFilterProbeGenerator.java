@@ -1,8 +1,54 @@
 package com.dirkmoors.util.bloomfilter.probegenerators;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public interface IBloomFilterProbeGenerator {
 	public BigInteger[] getProbes(int numProbesK, int numBitsM, String data);
+	
+	/**
+	 * Hands every probe to the consumer in the same order getProbes would 
+	 * return them. This default calls getProbes; the bundled generators 
+	 * override it to probe without allocating.
+	 * 
+	 * @return false if the consumer stopped probing early, true otherwise.
+	 */
+	public default boolean forEachProbe(int numProbesK, int numBitsM, String data, IBloomFilterProbeConsumer consumer){
+		for(BigInteger probe : getProbes(numProbesK, numBitsM, data)){
+			if(!consumer.accept(probe.intValue())){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * The key overloads below give the same probes as the String holding
+	 * the same text: byte keys are UTF-8 and long keys are their decimal
+	 * representation. These defaults convert to a String; implementations
+	 * override them to hash the key in place.
+	 */
+	public default boolean forEachProbe(int numProbesK, int numBitsM, CharSequence data, IBloomFilterProbeConsumer consumer){
+		return forEachProbe(numProbesK, numBitsM, data.toString(), consumer);
+	}
+	
+	public default boolean forEachProbe(int numProbesK, int numBitsM, byte[] data, int offset, int length,
+			IBloomFilterProbeConsumer consumer){
+		return forEachProbe(numProbesK, numBitsM, new String(data, offset, length, StandardCharsets.UTF_8), consumer);
+	}
+	
+	/**
+	 * Probes the bytes between the position and the limit of data, leaving
+	 * its position unchanged.
+	 */
+	public default boolean forEachProbe(int numProbesK, int numBitsM, ByteBuffer data, IBloomFilterProbeConsumer consumer){
+		return forEachProbe(numProbesK, numBitsM, StandardCharsets.UTF_8.decode(data.duplicate()).toString(), consumer);
+	}
+	
+	public default boolean forEachProbe(int numProbesK, int numBitsM, long data, IBloomFilterProbeConsumer consumer){
+		return forEachProbe(numProbesK, numBitsM, Long.toString(data), consumer);
+	}
+	
 	public String getName();
 }
@@ -0,0 +1,78 @@
+package com.dirkmoors.util.bloomfilter.probegenerators;
+
+/**
+ * Allocation free conversions of keys to the bytes the generators hash.
+ */
+final class KeyBytes {
+	static final int MAX_DECIMAL_BYTES = 20;
+
+	private KeyBytes() {
+	}
+
+	/**
+	 * Encodes the key the same way String.getBytes(UTF-8) does, without
+	 * allocating.
+	 *
+	 * @param key
+	 *            CharSequence
+	 * @param out
+	 *            byte[], at least 3 bytes per char
+	 * @return the number of bytes written.
+	 */
+	static int encodeUtf8(CharSequence key, byte[] out) {
+		int pos = 0;
+		int length = key.length();
+		for (int i = 0; i < length; i++) {
+			char c = key.charAt(i);
+			if (c < 0x80) {
+				out[pos++] = (byte) c;
+			} else if (c < 0x800) {
+				out[pos++] = (byte) (0xC0 | (c >> 6));
+				out[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				char next = i + 1 < length ? key.charAt(i + 1) : 0;
+				if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next)) {
+					int cp = Character.toCodePoint(c, next);
+					out[pos++] = (byte) (0xF0 | (cp >> 18));
+					out[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+					out[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+					out[pos++] = (byte) (0x80 | (cp & 0x3F));
+					i++;
+				} else {
+					// Malformed input is replaced, as String.getBytes(UTF-8) does
+					out[pos++] = (byte) '?';
+				}
+			} else {
+				out[pos++] = (byte) (0xE0 | (c >> 12));
+				out[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				out[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * Writes the decimal digits of the key, as Long.toString(key) would.
+	 *
+	 * @param out
+	 *            byte[], at least MAX_DECIMAL_BYTES long
+	 * @return the number of bytes written.
+	 */
+	static int encodeDecimal(long key, byte[] out) {
+		int length = 0;
+		long value = key;
+		do {
+			out[length++] = (byte) ('0' + Math.abs(value % 10));
+			value /= 10;
+		} while (value != 0);
+		if (key < 0) {
+			out[length++] = '-';
+		}
+		for (int i = 0, j = length - 1; i < j; i++, j--) {
+			byte tmp = out[i];
+			out[i] = out[j];
+			out[j] = tmp;
+		}
+		return length;
+	}
+}
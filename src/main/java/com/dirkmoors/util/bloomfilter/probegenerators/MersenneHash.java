@@ -0,0 +1,204 @@
+package com.dirkmoors.util.bloomfilter.probegenerators;
+
+/**
+ * The simpleHash of MersenneProbeGenerator on fixed width integers, for the
+ * primes 2^e1 - 1, 2^e2 - 1 and 2^e3 - 1:
+ *
+ * <pre>
+ * result += ((result + char + prime1) * prime2) % prime3
+ * </pre>
+ *
+ * Numbers are 32 bit limbs held in longs, least significant first. Modulo a
+ * Mersenne prime 2^b - 1, multiplying by 2^a is a rotation of the low b bits
+ * and subtracting x is adding its b bit complement, so a char costs a few
+ * shifts and adds over the limbs and nothing is allocated per char.
+ */
+final class MersenneHash {
+	private static final long LIMB_MASK = 0xFFFFFFFFL;
+
+	private final long prime1;
+	private final int exponent2;
+	private final int exponent3;
+	private final int numLimbs;
+
+	MersenneHash(int exponent1, int exponent2, int exponent3) {
+		this.prime1 = (1L << exponent1) - 1;
+		this.exponent2 = exponent2;
+		this.exponent3 = exponent3;
+		// result grows by less than prime3 per char, so it stays below
+		// 2^(e3 + 31) for any String; one more bit for the carry
+		this.numLimbs = (exponent3 + 32 + 31) / 32;
+	}
+
+	/**
+	 * @return the exact hash of data as numLimbs limbs.
+	 */
+	long[] hash(CharSequence data) {
+		long[] result = new long[this.numLimbs];
+		long[] x = new long[this.numLimbs];
+		long[] y = new long[this.numLimbs];
+		long[] tmp = new long[this.numLimbs];
+
+		int length = data.length();
+		for (int i = 0; i < length; i++) {
+			// x = (result + char + prime1) % prime3
+			System.arraycopy(result, 0, x, 0, this.numLimbs);
+			addSmall(x, data.charAt(i) + this.prime1);
+			reduce(x, tmp);
+
+			// y = (x * 2^e2 - x) % prime3 = rotate(x, e2) + (prime3 - x)
+			rotateLeft(x, this.exponent2, y, tmp);
+			complement(x);
+			add(y, x);
+			reduce(y, tmp);
+
+			add(result, y);
+		}
+		return result;
+	}
+
+	/**
+	 * @return value % m, for m > 0.
+	 */
+	static long mod(long[] value, long m) {
+		long remainder = 0;
+		if (m <= Integer.MAX_VALUE) {
+			for (int i = value.length - 1; i >= 0; i--) {
+				remainder = ((remainder << 32) | value[i]) % m;
+			}
+			return remainder;
+		}
+		// remainder < m < 2^63, so doubling it cannot overflow unsigned
+		for (int i = value.length - 1; i >= 0; i--) {
+			for (int bit = 31; bit >= 0; bit--) {
+				remainder = (remainder << 1) | ((value[i] >>> bit) & 1);
+				if (Long.compareUnsigned(remainder, m) >= 0) {
+					remainder -= m;
+				}
+			}
+		}
+		return remainder;
+	}
+
+	/**
+	 * Reduces v modulo prime3 to [0, prime3) by folding the bits above e3
+	 * back onto the low bits, as 2^e3 == 1.
+	 */
+	private void reduce(long[] v, long[] tmp) {
+		while (!fitsExponent3(v)) {
+			shiftRight(v, this.exponent3, tmp);
+			mask(v, this.exponent3);
+			add(v, tmp);
+		}
+		if (isPrime3(v)) {
+			for (int i = 0; i < this.numLimbs; i++) {
+				v[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * out = x rotated left by shift within the low e3 bits, for x < 2^e3.
+	 */
+	private void rotateLeft(long[] x, int shift, long[] out, long[] tmp) {
+		shiftLeft(x, shift, out);
+		mask(out, this.exponent3);
+		shiftRight(x, this.exponent3 - shift, tmp);
+		for (int i = 0; i < this.numLimbs; i++) {
+			out[i] |= tmp[i];
+		}
+	}
+
+	/**
+	 * x = prime3 - x, for x < 2^e3.
+	 */
+	private void complement(long[] x) {
+		for (int i = 0; i < this.numLimbs; i++) {
+			x[i] = ~x[i] & LIMB_MASK;
+		}
+		mask(x, this.exponent3);
+	}
+
+	private boolean fitsExponent3(long[] v) {
+		int limb = this.exponent3 >>> 5;
+		if ((v[limb] >>> (this.exponent3 & 31)) != 0) {
+			return false;
+		}
+		for (int i = limb + 1; i < this.numLimbs; i++) {
+			if (v[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isPrime3(long[] v) {
+		int limb = this.exponent3 >>> 5;
+		for (int i = 0; i < limb; i++) {
+			if (v[i] != LIMB_MASK) {
+				return false;
+			}
+		}
+		return v[limb] == (1L << (this.exponent3 & 31)) - 1;
+	}
+
+	private void mask(long[] v, int bits) {
+		int limb = bits >>> 5;
+		v[limb] &= (1L << (bits & 31)) - 1;
+		for (int i = limb + 1; i < this.numLimbs; i++) {
+			v[i] = 0;
+		}
+	}
+
+	// Bits shifted beyond the top limb are dropped
+	private void shiftLeft(long[] v, int shift, long[] out) {
+		int limbShift = shift >>> 5;
+		int bitShift = shift & 31;
+		for (int i = this.numLimbs - 1; i >= 0; i--) {
+			int j = i - limbShift;
+			long value = 0;
+			if (j >= 0) {
+				value = v[j] << bitShift;
+				if (bitShift != 0 && j > 0) {
+					value |= v[j - 1] >>> (32 - bitShift);
+				}
+			}
+			out[i] = value & LIMB_MASK;
+		}
+	}
+
+	private void shiftRight(long[] v, int shift, long[] out) {
+		int limbShift = shift >>> 5;
+		int bitShift = shift & 31;
+		for (int i = 0; i < this.numLimbs; i++) {
+			int j = i + limbShift;
+			long value = 0;
+			if (j < this.numLimbs) {
+				value = v[j] >>> bitShift;
+				if (bitShift != 0 && j + 1 < this.numLimbs) {
+					value |= v[j + 1] << (32 - bitShift);
+				}
+			}
+			out[i] = value & LIMB_MASK;
+		}
+	}
+
+	private void add(long[] v, long[] w) {
+		long carry = 0;
+		for (int i = 0; i < this.numLimbs; i++) {
+			long sum = v[i] + w[i] + carry;
+			v[i] = sum & LIMB_MASK;
+			carry = sum >>> 32;
+		}
+	}
+
+	// value < 2^32
+	private void addSmall(long[] v, long value) {
+		long carry = value;
+		for (int i = 0; i < this.numLimbs && carry != 0; i++) {
+			long sum = v[i] + carry;
+			v[i] = sum & LIMB_MASK;
+			carry = sum >>> 32;
+		}
+	}
+}
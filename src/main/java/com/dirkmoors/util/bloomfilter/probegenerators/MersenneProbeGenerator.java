@@ -1,15 +1,41 @@
 package com.dirkmoors.util.bloomfilter.probegenerators;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 
 //http://en.wikipedia.org/wiki/Mersenne_prime
 //Source: http://stromberg.dnsalias.org/svn/bloom-filter/trunk/bloom_filter_mod.py
 
-public class MersenneProbeGenerator implements IBloomFilterProbeGenerator {
+public class MersenneProbeGenerator implements IBloomFilterLongProbeGenerator {
 	public static final String NAME = "MERSENNE";
 	
 	private static final BigInteger[] MERSENNE1 = calculateMersenne1();
 	private static final BigInteger[] MERSENNE2 = calculateMersenne2();
+	
+	//Same hashes on fixed width integers; getProbes keeps the BigInteger reference
+	private static final MersenneHash HASH1 = new MersenneHash(17, 31, 127);
+	private static final MersenneHash HASH2 = new MersenneHash(19, 67, 257);
+	
+	//Per thread buffer for keys that are not a CharSequence yet
+	private static final ThreadLocal<CharBuffer> scratch = new ThreadLocal<CharBuffer>(){
+		@Override
+		protected CharBuffer initialValue() {
+			return CharBuffer.allocate(64);
+		}
+	};
+	
+	private static final ThreadLocal<CharsetDecoder> decoders = new ThreadLocal<CharsetDecoder>(){
+		@Override
+		protected CharsetDecoder initialValue() {
+			return StandardCharsets.UTF_8.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+	};
 
 	@Override
 	public String getName() {
@@ -18,13 +44,8 @@ public class MersenneProbeGenerator implements IBloomFilterProbeGenerator {
 
 	@Override
 	public BigInteger[] getProbes(int numProbesK, int numBitsM, String data) {
-		int[] intList = new int[data.length()];		
-		for (int i = 0; i < data.length(); i++){
-			intList[i] = (int)data.charAt(i);
-		}
-		
-		BigInteger hashValue1 = MersenneProbeGenerator.hash1(intList);
-		BigInteger hashValue2 = MersenneProbeGenerator.hash2(intList);	
+		BigInteger hashValue1 = MersenneProbeGenerator.hash1(data);
+		BigInteger hashValue2 = MersenneProbeGenerator.hash2(data);	
 		
 		BigInteger[] probes = new BigInteger[numProbesK];
 		
@@ -40,9 +61,105 @@ public class MersenneProbeGenerator implements IBloomFilterProbeGenerator {
 		return probes;
 	}
 	
-	private static BigInteger simpleHash(int[] intList, BigInteger prime1, BigInteger prime2, BigInteger prime3){		
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, String data, IBloomFilterProbeConsumer consumer) {
+		return forEachProbe(numProbesK, numBitsM, (CharSequence)data, consumer);
+	}
+	
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, CharSequence data, IBloomFilterProbeConsumer consumer) {
+		//(hash1 + probeno * hash2) % m == (hash1 % m + probeno * (hash2 % m)) % m
+		long hashValue1 = MersenneHash.mod(HASH1.hash(data), numBitsM);
+		long hashValue2 = MersenneHash.mod(HASH2.hash(data), numBitsM);
+		
+		long bitindex = hashValue1;
+		for(int probeno = 1; probeno < numProbesK + 1; probeno++){
+			bitindex = (bitindex + hashValue2) % numBitsM;
+			if(!consumer.accept((int)bitindex)){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, byte[] data, int offset, int length,
+			IBloomFilterProbeConsumer consumer) {
+		return forEachProbe(numProbesK, numBitsM, decodeUtf8(ByteBuffer.wrap(data, offset, length)), consumer);
+	}
+	
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, ByteBuffer data, IBloomFilterProbeConsumer consumer) {
+		return forEachProbe(numProbesK, numBitsM, decodeUtf8(data.duplicate()), consumer);
+	}
+	
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, long data, IBloomFilterProbeConsumer consumer) {
+		//The decimal digits, as Long.toString(data) would give them
+		CharBuffer chars = scratch(20);
+		long value = data;
+		do{
+			chars.put((char)('0' + Math.abs(value % 10)));
+			value /= 10;
+		}
+		while(value != 0);
+		if(data < 0){
+			chars.put('-');
+		}
+		for(int i = 0, j = chars.position() - 1; i < j; i++, j--){
+			char tmp = chars.get(i);
+			chars.put(i, chars.get(j));
+			chars.put(j, tmp);
+		}
+		chars.flip();
+		return forEachProbe(numProbesK, numBitsM, chars, consumer);
+	}
+	
+	@Override
+	public boolean forEachLongProbe(int numProbesK, long numBitsM, String data, IBloomFilterLongProbeConsumer consumer) {
+		long hashValue1 = MersenneHash.mod(HASH1.hash(data), numBitsM);
+		long hashValue2 = MersenneHash.mod(HASH2.hash(data), numBitsM);
+		
+		//Both terms are < m, so (bitindex + hashValue2) % m can be done without overflowing
+		long complement = numBitsM - hashValue2;
+		long bitindex = hashValue1;
+		for(int probeno = 1; probeno < numProbesK + 1; probeno++){
+			bitindex = bitindex >= complement ? bitindex - complement : bitindex + hashValue2;
+			if(!consumer.accept(bitindex)){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Decodes the bytes the way new String(bytes, UTF-8) does, into the
+	 * scratch buffer of this thread.
+	 */
+	private static CharBuffer decodeUtf8(ByteBuffer data){
+		CharsetDecoder decoder = decoders.get();
+		CharBuffer chars = scratch((int)Math.ceil(data.remaining() * (double)decoder.maxCharsPerByte()));
+		decoder.reset();
+		decoder.decode(data, chars, true);
+		decoder.flush(chars);
+		chars.flip();
+		return chars;
+	}
+	
+	private static CharBuffer scratch(int minLength){
+		CharBuffer chars = scratch.get();
+		if(chars.capacity() < minLength){
+			chars = CharBuffer.allocate(Math.max(minLength, chars.capacity() * 2));
+			scratch.set(chars);
+		}
+		chars.clear();
+		return chars;
+	}
+	
+	private static BigInteger simpleHash(CharSequence data, BigInteger prime1, BigInteger prime2, BigInteger prime3){		
 		BigInteger result = BigInteger.valueOf(0);
-		for(int i : intList){
+		for(int index = 0; index < data.length(); index++){
+			int i = data.charAt(index);
 			//result += ((result + integer + prime1) * prime2) % prime3
 			BigInteger tempValue = BigInteger.valueOf(i).add(result).add(prime1);
 			tempValue = tempValue.multiply(prime2);
@@ -52,12 +169,12 @@ public class MersenneProbeGenerator implements IBloomFilterProbeGenerator {
 		return result;
 	}
 	
-	private static BigInteger hash1(int[] intList){
-		return simpleHash(intList, MERSENNE1[0], MERSENNE1[1], MERSENNE1[2]);
+	private static BigInteger hash1(CharSequence data){
+		return simpleHash(data, MERSENNE1[0], MERSENNE1[1], MERSENNE1[2]);
 	}
 	
-	private static BigInteger hash2(int[] intList){
-		return simpleHash(intList, MERSENNE2[0], MERSENNE2[1], MERSENNE2[2]);
+	private static BigInteger hash2(CharSequence data){
+		return simpleHash(data, MERSENNE2[0], MERSENNE2[1], MERSENNE2[2]);
 	}
 	
 	private static BigInteger[] calculateMersenne(int[] primes){
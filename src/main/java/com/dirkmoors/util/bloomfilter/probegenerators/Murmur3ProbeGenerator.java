@@ -0,0 +1,235 @@
+package com.dirkmoors.util.bloomfilter.probegenerators;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Hashes the UTF-8 bytes of the key once with MurmurHash3 (x64, 128 bit) and
+ * derives all probes from the two 64 bit halves by double hashing
+ * (Kirsch and Mitzenmacher): probe i is h1 + i * h2, reduced to [0, m) by
+ * taking the high 64 bits of the 128 bit product with m. The cost does not
+ * depend on the number of probes beyond a multiply per probe.
+ *
+ * Not compatible with the Python library, which has no such generator.
+ */
+public class Murmur3ProbeGenerator implements IBloomFilterLongProbeGenerator {
+	public static final String NAME = "MURMUR3_128";
+
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	// Per thread buffer for keys that have to be encoded or copied first
+	private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>(){
+		@Override
+		protected byte[] initialValue() {
+			return new byte[64];
+		}
+	};
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public BigInteger[] getProbes(int numProbesK, int numBitsM, String key) {
+		final BigInteger[] positions = new BigInteger[numProbesK];
+		forEachProbe(numProbesK, numBitsM, key, new IBloomFilterProbeConsumer() {
+			private int index = 0;
+
+			@Override
+			public boolean accept(int bitno) {
+				positions[index++] = BigInteger.valueOf(bitno);
+				return true;
+			}
+		});
+		return positions;
+	}
+
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, String key, IBloomFilterProbeConsumer consumer) {
+		return forEachProbe(numProbesK, numBitsM, (CharSequence) key, consumer);
+	}
+
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, CharSequence key, IBloomFilterProbeConsumer consumer) {
+		byte[] data = scratch(key.length() * 3);
+		int length = KeyBytes.encodeUtf8(key, data);
+		return probes(numProbesK, numBitsM, data, 0, length, consumer, null);
+	}
+
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, byte[] key, int offset, int length,
+			IBloomFilterProbeConsumer consumer) {
+		return probes(numProbesK, numBitsM, key, offset, length, consumer, null);
+	}
+
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, ByteBuffer key, IBloomFilterProbeConsumer consumer) {
+		int length = key.remaining();
+		if (key.hasArray()) {
+			return probes(numProbesK, numBitsM, key.array(), key.arrayOffset() + key.position(), length, consumer, null);
+		}
+		byte[] data = scratch(length);
+		int position = key.position();
+		for (int i = 0; i < length; i++) {
+			data[i] = key.get(position + i);
+		}
+		return probes(numProbesK, numBitsM, data, 0, length, consumer, null);
+	}
+
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, long key, IBloomFilterProbeConsumer consumer) {
+		byte[] data = scratch(KeyBytes.MAX_DECIMAL_BYTES);
+		int length = KeyBytes.encodeDecimal(key, data);
+		return probes(numProbesK, numBitsM, data, 0, length, consumer, null);
+	}
+
+	@Override
+	public boolean forEachLongProbe(int numProbesK, long numBitsM, String key, IBloomFilterLongProbeConsumer consumer) {
+		byte[] data = scratch(key.length() * 3);
+		int length = KeyBytes.encodeUtf8(key, data);
+		return probes(numProbesK, numBitsM, data, 0, length, null, consumer);
+	}
+
+	/**
+	 * Hands the probes to whichever of consumer and longConsumer is not null.
+	 */
+	private static boolean probes(int numProbesK, long numBitsM, byte[] data, int offset, int length,
+			IBloomFilterProbeConsumer consumer, IBloomFilterLongProbeConsumer longConsumer) {
+		long h1 = 0;
+		long h2 = 0;
+
+		int end = offset + length;
+		int i = offset;
+		for (; i + 16 <= end; i += 16) {
+			long k1 = getLongLE(data, i);
+			long k2 = getLongLE(data, i + 8);
+
+			h1 ^= mixK1(k1);
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+
+			h2 ^= mixK2(k2);
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		long k1 = 0;
+		long k2 = 0;
+		switch (end - i) {
+		case 15:
+			k2 ^= (long) (data[i + 14] & 0xFF) << 48;
+		case 14:
+			k2 ^= (long) (data[i + 13] & 0xFF) << 40;
+		case 13:
+			k2 ^= (long) (data[i + 12] & 0xFF) << 32;
+		case 12:
+			k2 ^= (long) (data[i + 11] & 0xFF) << 24;
+		case 11:
+			k2 ^= (long) (data[i + 10] & 0xFF) << 16;
+		case 10:
+			k2 ^= (long) (data[i + 9] & 0xFF) << 8;
+		case 9:
+			k2 ^= (long) (data[i + 8] & 0xFF);
+			h2 ^= mixK2(k2);
+		case 8:
+			k1 ^= (long) (data[i + 7] & 0xFF) << 56;
+		case 7:
+			k1 ^= (long) (data[i + 6] & 0xFF) << 48;
+		case 6:
+			k1 ^= (long) (data[i + 5] & 0xFF) << 40;
+		case 5:
+			k1 ^= (long) (data[i + 4] & 0xFF) << 32;
+		case 4:
+			k1 ^= (long) (data[i + 3] & 0xFF) << 24;
+		case 3:
+			k1 ^= (long) (data[i + 2] & 0xFF) << 16;
+		case 2:
+			k1 ^= (long) (data[i + 1] & 0xFF) << 8;
+		case 1:
+			k1 ^= (long) (data[i] & 0xFF);
+			h1 ^= mixK1(k1);
+		}
+
+		h1 ^= length;
+		h2 ^= length;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix64(h1);
+		h2 = fmix64(h2);
+		h1 += h2;
+		h2 += h1;
+
+		long combined = h1;
+		for (int probe = 0; probe < numProbesK; probe++) {
+			long bitno = multiplyHighUnsigned(combined, numBitsM);
+			boolean more = consumer != null ? consumer.accept((int) bitno) : longConsumer.accept(bitno);
+			if (!more) {
+				return false;
+			}
+			combined += h2;
+		}
+		return true;
+	}
+
+	private static long mixK1(long k1) {
+		k1 *= C1;
+		k1 = Long.rotateLeft(k1, 31);
+		k1 *= C2;
+		return k1;
+	}
+
+	private static long mixK2(long k2) {
+		k2 *= C2;
+		k2 = Long.rotateLeft(k2, 33);
+		k2 *= C1;
+		return k2;
+	}
+
+	private static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	private static long getLongLE(byte[] data, int i) {
+		return (data[i] & 0xFFL)
+				| (data[i + 1] & 0xFFL) << 8
+				| (data[i + 2] & 0xFFL) << 16
+				| (data[i + 3] & 0xFFL) << 24
+				| (data[i + 4] & 0xFFL) << 32
+				| (data[i + 5] & 0xFFL) << 40
+				| (data[i + 6] & 0xFFL) << 48
+				| (data[i + 7] & 0xFFL) << 56;
+	}
+
+	/**
+	 * @return the high 64 bits of the unsigned 128 bit product x * y, which
+	 *         for y = m maps x uniformly onto [0, m).
+	 */
+	static long multiplyHighUnsigned(long x, long y) {
+		long x0 = x & 0xFFFFFFFFL;
+		long x1 = x >>> 32;
+		long y0 = y & 0xFFFFFFFFL;
+		long y1 = y >>> 32;
+
+		long t = x1 * y0 + ((x0 * y0) >>> 32);
+		long w1 = (t & 0xFFFFFFFFL) + x0 * y1;
+		return x1 * y1 + (t >>> 32) + (w1 >>> 32);
+	}
+
+	private static byte[] scratch(int minLength) {
+		byte[] data = scratch.get();
+		if (data.length < minLength) {
+			data = new byte[Math.max(minLength, data.length * 2)];
+			scratch.set(data);
+		}
+		return data;
+	}
+}
@@ -1,97 +1,232 @@
 package com.dirkmoors.util.bloomfilter.probegenerators;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 
-public class MurmurProbeGenerator implements IBloomFilterProbeGenerator {
+public class MurmurProbeGenerator implements IBloomFilterLongProbeGenerator {
 	public static final String NAME = "MURMUR";
 	private static final int seed32 = 89478583;
 
+	// Per thread working copy of the key, mutated between probes
+	private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>(){
+		@Override
+		protected byte[] initialValue() {
+			return new byte[64];
+		}
+	};
+
 	@Override
 	public BigInteger[] getProbes(int numProbesK, int numBitsM, String key) {
-		byte[] value = key.getBytes();	
-		
-		BigInteger[] positions = new BigInteger[numProbesK];
+		final BigInteger[] positions = new BigInteger[numProbesK];
+		forEachProbe(numProbesK, numBitsM, key, new IBloomFilterProbeConsumer() {
+			private int index = 0;
+
+			@Override
+			public boolean accept(int bitno) {
+				positions[index++] = BigInteger.valueOf(bitno);
+				return true;
+			}
+		});
+		return positions;
+	}
+
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, String key, IBloomFilterProbeConsumer consumer) {
+		return probes(numProbesK, numBitsM, prepareKey(key), consumer);
+	}
+
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, CharSequence key, IBloomFilterProbeConsumer consumer) {
+		return probes(numProbesK, numBitsM, prepareKey(key), consumer);
+	}
+
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, byte[] key, int offset, int length,
+			IBloomFilterProbeConsumer consumer) {
+		return probes(numProbesK, numBitsM, prepareKey(key, offset, length), consumer);
+	}
+
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, ByteBuffer key, IBloomFilterProbeConsumer consumer) {
+		return probes(numProbesK, numBitsM, prepareKey(key), consumer);
+	}
+
+	@Override
+	public boolean forEachProbe(int numProbesK, int numBitsM, long key, IBloomFilterProbeConsumer consumer) {
+		return probes(numProbesK, numBitsM, prepareKey(key), consumer);
+	}
+
+	@Override
+	public boolean forEachLongProbe(int numProbesK, long numBitsM, String key, IBloomFilterLongProbeConsumer consumer) {
+		return longProbes(numProbesK, numBitsM, prepareKey(key), consumer);
+	}
+
+	/**
+	 * Probes the first length bytes of the scratch buffer of this thread.
+	 */
+	private static boolean probes(int numProbesK, int numBitsM, int length, IBloomFilterProbeConsumer consumer) {
+		byte[] data = scratch.get();
 
 		int hashes = 0;
 		int lastHash = 0;
-		byte[] data = (byte[]) value.clone();
 		while (hashes < numProbesK) {
-			// Code taken from:
-			// http://dmy999.com/article/50/murmurhash-2-java-port by Derekt
-			// Young (Public Domain)
-			// as the Hadoop implementation by Andrzej Bialecki is buggy
-
-			for (int i = 0; i < value.length; i++) {
-				if (data[i] == 127) {
-					data[i] = 0;
-					continue;
-				} else {
-					data[i]++;
-					break;
+			increment(data, length);
+			lastHash = rejectionSample(murmur2(data, length), numBitsM);
+			if (lastHash != -1) {
+				hashes++;
+				if(!consumer.accept(lastHash)){
+					return false;
 				}
 			}
+		}
+		return true;
+	}
 
-			// 'm' and 'r' are mixing constants generated offline.
-			// They're not really 'magic', they just happen to work well.
-			int m = 0x5bd1e995;
-			int r = 24;
+	private static boolean longProbes(int numProbesK, long numBitsM, int length, final IBloomFilterLongProbeConsumer consumer) {
+		if (numBitsM <= Integer.MAX_VALUE) {
+			return probes(numProbesK, (int) numBitsM, length, new IBloomFilterProbeConsumer() {
+				@Override
+				public boolean accept(int bitno) {
+					return consumer.accept(bitno);
+				}
+			});
+		}
 
-			// Initialize the hash to a 'random' value
-			int len = data.length;
-			int h = seed32 ^ len;
+		byte[] data = scratch.get();
 
-			int i = 0;
-			while (len >= 4) {
-				int k = data[i + 0] & 0xFF;
-				k |= (data[i + 1] & 0xFF) << 8;
-				k |= (data[i + 2] & 0xFF) << 16;
-				k |= (data[i + 3] & 0xFF) << 24;
+		// Two consecutive hashes make up one 63 bit random number
+		long maxAccepted = Long.MAX_VALUE - (Long.MAX_VALUE % numBitsM + 1) % numBitsM;
+		int hashes = 0;
+		while (hashes < numProbesK) {
+			increment(data, length);
+			long high = murmur2(data, length);
+			increment(data, length);
+			long low = murmur2(data, length) & 0xFFFFFFFFL;
 
-				k *= m;
-				int msk = k >>> r;
-				k ^= msk;
-				k *= m;
+			long random = ((high << 32) | low) >>> 1;
+			if (random <= maxAccepted) {
+				hashes++;
+				if(!consumer.accept(random % numBitsM)){
+					return false;
+				}
+			}
+		}
+		return true;
+	}
 
-				h *= m;
-				h ^= k;
+	@Override
+	public String getName() {
+		return NAME;
+	}
 
-				i += 4;
-				len -= 4;
-			}
+	private static int murmur2(byte[] data, int length) {
+		// Code taken from:
+		// http://dmy999.com/article/50/murmurhash-2-java-port by Derekt
+		// Young (Public Domain)
+		// as the Hadoop implementation by Andrzej Bialecki is buggy
 
-			switch (len) {
-			case 3:
-				h ^= (data[i + 2] & 0xFF) << 16;
-			case 2:
-				h ^= (data[i + 1] & 0xFF) << 8;
-			case 1:
-				h ^= (data[i + 0] & 0xFF);
-				h *= m;
-			}
+		// 'm' and 'r' are mixing constants generated offline.
+		// They're not really 'magic', they just happen to work well.
+		int m = 0x5bd1e995;
+		int r = 24;
+
+		// Initialize the hash to a 'random' value
+		int len = length;
+		int h = seed32 ^ len;
+
+		int i = 0;
+		while (len >= 4) {
+			int k = data[i + 0] & 0xFF;
+			k |= (data[i + 1] & 0xFF) << 8;
+			k |= (data[i + 2] & 0xFF) << 16;
+			k |= (data[i + 3] & 0xFF) << 24;
+
+			k *= m;
+			int msk = k >>> r;
+			k ^= msk;
+			k *= m;
 
-			h ^= h >>> 13;
 			h *= m;
-			h ^= h >>> 15;
+			h ^= k;
 
-			lastHash = rejectionSample(h, numBitsM);
-			if (lastHash != -1) {
-				positions[hashes++] = BigInteger.valueOf(lastHash);
+			i += 4;
+			len -= 4;
+		}
+
+		switch (len) {
+		case 3:
+			h ^= (data[i + 2] & 0xFF) << 16;
+		case 2:
+			h ^= (data[i + 1] & 0xFF) << 8;
+		case 1:
+			h ^= (data[i + 0] & 0xFF);
+			h *= m;
+		}
+
+		h ^= h >>> 13;
+		h *= m;
+		h ^= h >>> 15;
+		return h;
+	}
+
+	/**
+	 * Copies the UTF-8 bytes of the key to the scratch buffer of this thread.
+	 * Probing mutates the bytes, so the key itself is never hashed in place.
+	 *
+	 * @return the number of bytes copied.
+	 */
+	private static int prepareKey(CharSequence key) {
+		return KeyBytes.encodeUtf8(key, scratch(key.length() * 3));
+	}
+
+	private static int prepareKey(byte[] key, int offset, int length) {
+		System.arraycopy(key, offset, scratch(length), 0, length);
+		return length;
+	}
+
+	private static int prepareKey(ByteBuffer key) {
+		int length = key.remaining();
+		byte[] data = scratch(length);
+		if (key.hasArray()) {
+			System.arraycopy(key.array(), key.arrayOffset() + key.position(), data, 0, length);
+		} else {
+			int position = key.position();
+			for (int i = 0; i < length; i++) {
+				data[i] = key.get(position + i);
 			}
-			/*lastHash = Math.abs(h) % numBitsM;
-			positions[hashes++] = BigInteger.valueOf(lastHash);*/
 		}
-		return positions;
+		return length;
 	}
 
-	@Override
-	public String getName() {		
-		return NAME;
+	private static int prepareKey(long key) {
+		return KeyBytes.encodeDecimal(key, scratch(KeyBytes.MAX_DECIMAL_BYTES));
 	}
-	
+
+	private static void increment(byte[] data, int length) {
+		for (int i = 0; i < length; i++) {
+			if (data[i] == 127) {
+				data[i] = 0;
+				continue;
+			} else {
+				data[i]++;
+				break;
+			}
+		}
+	}
+
+	private static byte[] scratch(int minLength) {
+		byte[] data = scratch.get();
+		if (data.length < minLength) {
+			data = new byte[Math.max(minLength, data.length * 2)];
+			scratch.set(data);
+		}
+		return data;
+	}
+
 	/**
 	 * Performs rejection sampling on a random 32bit Java int (sampled from
 	 * Integer.MIN_VALUE to Integer.MAX_VALUE).
-	 * 
+	 *
 	 * @param random
 	 *            int
 	 * @param numBitsM
@@ -0,0 +1,115 @@
+package com.dirkmoors.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+import com.dirkmoors.util.bloomfilter.BinaryFuseFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.IMembershipFilter;
+import com.dirkmoors.util.bloomfilter.IMutableMembershipFilter;
+
+public class BinaryFuseFilterTest {
+	@Test
+	public void testDictionary() throws IOException, DataFormatException{
+		//The word list is not valid UTF-8
+		List<String> words = Files.readAllLines(Paths.get("res/test/english-words.txt"), Charset.forName("ISO-8859-1"));
+		for(double errorRate : new double[]{1.0 / 256, 0.0001}){
+			BinaryFuseFilter bff = new BinaryFuseFilter(words, errorRate);
+			BloomFilter bf = new BloomFilter(words.size(), errorRate);
+			assertTrue(bff.getNumberOfBits() < bf.getNumberOfBits() * 0.85);
+
+			int falsePositives = 0;
+			for(int i = 0; i < words.size(); i++){
+				assertEquals(Result.MAYBE, bff.contains(words.get(i)));
+				if(bff.contains("other" + i) == Result.MAYBE){
+					falsePositives++;
+				}
+			}
+			assertTrue(falsePositives < words.size() * errorRate * 1.5);
+
+			BinaryFuseFilter bff2 = BinaryFuseFilter.fromJSON(bff.toJSON());
+			assertEquals(bff.toJSON(false), bff2.toJSON(false));
+			for(int i = 0; i < 10000; i++){
+				assertEquals(Result.MAYBE, bff2.contains(words.get(i)));
+				assertEquals(bff.contains("other" + i), bff2.contains("other" + i));
+			}
+		}
+	}
+
+	@Test
+	public void testSmallAndDuplicateKeySets(){
+		assertEquals(Result.NO, new BinaryFuseFilter(new ArrayList<String>(), 0.001).contains("key"));
+		assertEquals(Result.MAYBE, new BinaryFuseFilter(Arrays.asList("key"), 0.001).contains("key"));
+
+		List<String> keys = new ArrayList<String>();
+		for(int n = 0; n < 200; n++){
+			keys.add("key" + n);
+			keys.add("key" + n);
+			BinaryFuseFilter bff = new BinaryFuseFilter(keys, 0.001);
+			assertEquals(n + 1, bff.getNumberOfKeys());
+			for(String key : keys){
+				assertEquals(Result.MAYBE, bff.contains(key));
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentContains() throws Exception{
+		final List<String> keys = new ArrayList<String>();
+		for(int i = 0; i < 10000; i++){
+			keys.add("key" + i);
+		}
+		final BinaryFuseFilter bff = new BinaryFuseFilter(keys, 0.001);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try{
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for(int t = 0; t < 4; t++){
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						int misses = 0;
+						for(int round = 0; round < 20; round++){
+							for(String key : keys){
+								if(bff.contains(key) != Result.MAYBE){
+									misses++;
+								}
+							}
+						}
+						return misses;
+					}
+				}));
+			}
+			for(Future<Integer> future : futures){
+				assertEquals(0, (int)future.get());
+			}
+		}
+		finally{
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testReadOnly(){
+		IMembershipFilter filter = new BinaryFuseFilter(Arrays.asList("key"), 0.001);
+		assertFalse(filter instanceof IMutableMembershipFilter);
+		assertEquals(Result.MAYBE, filter.contains("key"));
+	}
+}
@@ -0,0 +1,101 @@
+package com.dirkmoors.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilterMetrics;
+
+public class BloomFilterMetricsTest {
+	private static final double ERROR_RATE = 0.001;
+
+	@Test
+	public void testCounters() throws IOException, DataFormatException{
+		BloomFilterMetrics metrics = new BloomFilterMetrics(1);
+		BloomFilter bf = new BloomFilter(10000, ERROR_RATE);
+		bf.setMetrics(metrics);
+
+		List<String> keys = new ArrayList<String>();
+		for(int i = 0; i < 1000; i++){
+			bf.add("key" + i);
+			keys.add("other" + i);
+		}
+		bf.addAll(keys);
+		for(int i = 0; i < 1000; i++){
+			bf.contains("key" + i);
+			bf.contains(("absent" + i).getBytes("UTF-8"));
+		}
+		keys.add("missing");
+		bf.containsAll(keys);
+		bf.union(bf);
+		bf.intersection(bf);
+
+		assertEquals(2000, metrics.getAdds());
+		assertEquals(3001, metrics.getContainsMaybe() + metrics.getContainsNo());
+		assertTrue(metrics.getContainsNo() >= 1001 - 2000 * ERROR_RATE * 2);
+		assertEquals(1, metrics.getUnions());
+		assertEquals(1, metrics.getIntersections());
+		assertTrue(metrics.getAddLatencyMedian() > 0);
+		assertTrue(metrics.getContainsLatency99thPercentile() >= metrics.getContainsLatencyMedian());
+
+		String json = bf.toJSON();
+		StringWriter writer = new StringWriter();
+		bf.toJSON(writer);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		bf.writeTo(out, true);
+		assertEquals(3, metrics.getSerializations());
+		assertEquals(2 * json.length() + out.size(), metrics.getSerializedBytes());
+
+		BloomFilter.setDefaultMetrics(metrics);
+		try{
+			BloomFilter.fromJSON(json);
+			BloomFilter.fromJSON(new StringReader(json));
+			BloomFilter copy = BloomFilter.readFrom(new ByteArrayInputStream(out.toByteArray()));
+			assertEquals(metrics, copy.getMetrics());
+		}
+		finally{
+			BloomFilter.setDefaultMetrics(null);
+		}
+		//Tests running in parallel may deserialize into the default metrics too
+		assertTrue(metrics.getDeserializations() >= 3);
+		assertTrue(metrics.getDeserializedBytes() >= 2 * json.length() + out.size());
+
+		metrics.reset();
+		assertEquals(0, metrics.getAdds());
+		assertEquals(0, metrics.getAddLatencyMedian());
+	}
+
+	@Test
+	public void testMBean() throws JMException{
+		BloomFilterMetrics metrics = new BloomFilterMetrics();
+		BloomFilter bf = new BloomFilter(1000, ERROR_RATE);
+		bf.setMetrics(metrics);
+		bf.add("key");
+
+		ObjectName name = metrics.register("test");
+		try{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(1L, server.getAttribute(name, "Adds"));
+			assertEquals(BloomFilterMetrics.DEFAULT_SAMPLE_INTERVAL, server.getAttribute(name, "SampleInterval"));
+		}
+		finally{
+			metrics.unregister("test");
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package com.dirkmoors.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import com.dirkmoors.util.bloomfilter.BinaryFuseFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.BloomFilterProcessor;
+import com.dirkmoors.util.bloomfilter.BloomFilterStage;
+import com.dirkmoors.util.bloomfilter.BloomFilterStage.Mode;
+import com.dirkmoors.util.bloomfilter.ConcurrentBloomFilter;
+import com.dirkmoors.util.bloomfilter.IMembershipFilter;
+
+public class BloomFilterStageTest {
+	private static final double ERROR_RATE = 0.0001;
+
+	//Most keys come twice, the second time about 1000 keys later
+	private static List<String> keysWithDuplicates(){
+		List<String> result = new ArrayList<String>();
+		for(int i = 0; i < 10000; i++){
+			result.add("key" + i);
+			if(i >= 500){
+				result.add("key" + (i - 500));
+			}
+		}
+		return result;
+	}
+
+	private static List<String> expectedDistinct(List<String> keys){
+		return keys.stream().distinct().collect(Collectors.toList());
+	}
+
+	@Test
+	public void testIterator(){
+		List<String> keys = keysWithDuplicates();
+		BloomFilterStage stage = new BloomFilterStage(new BloomFilter(20000, ERROR_RATE), Mode.DEDUPLICATE);
+		List<String> result = new ArrayList<String>();
+		stage.filter(keys.iterator(), 100).forEachRemaining(result::add);
+		assertEquals(expectedDistinct(keys), result);
+		assertEquals(result.size(), stage.getPassedCount());
+		assertEquals(keys.size() - result.size(), stage.getDroppedCount());
+		assertTrue(stage.getKeysPerSecond() > 0);
+
+		BloomFilter members = new BloomFilter(1000, ERROR_RATE);
+		for(int i = 0; i < 1000; i += 2){
+			members.add("key" + i);
+		}
+		BloomFilterStage retain = new BloomFilterStage(members, Mode.RETAIN_MEMBERS);
+		List<String> retained = retain.filter(IntStream.range(0, 1000).mapToObj(i -> "key" + i))
+			.collect(Collectors.toList());
+		assertEquals(500, retained.size());
+		assertEquals("key0", retained.get(0));
+		BloomFilterStage remove = new BloomFilterStage(members, Mode.REMOVE_MEMBERS);
+		assertEquals(Arrays.asList("key1"), remove.filter(Stream.of("key0", "key1")).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testProcessor() throws Exception{
+		List<String> keys = keysWithDuplicates();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try{
+			for(int numWorkers : new int[]{1, 4}){
+				BloomFilterStage stage = new BloomFilterStage(new ConcurrentBloomFilter(20000, ERROR_RATE), Mode.DEDUPLICATE);
+				BloomFilterProcessor processor = new BloomFilterProcessor(stage, 1000, numWorkers, executor);
+				SubmissionPublisher<String> source = new SubmissionPublisher<String>(executor, 16);
+				source.subscribe(processor);
+
+				List<String> result = Collections.synchronizedList(new ArrayList<String>());
+				CompletableFuture<Void> done = processor.consume(result::add);
+				for(String key : keys){
+					source.submit(key);
+				}
+				source.close();
+				done.get(30, TimeUnit.SECONDS);
+
+				assertEquals(expectedDistinct(keys), result);
+				assertEquals(keys.size() - result.size(), stage.getDroppedCount());
+			}
+		}
+		finally{
+			executor.shutdown();
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testWorkersNeedThreadSafeFilter(){
+		new BloomFilterProcessor(new BloomFilterStage(new BloomFilter(1000, ERROR_RATE), Mode.DEDUPLICATE), 1000, 2,
+			ForkJoinPool.commonPool());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testDeduplicateNeedsMutableFilter(){
+		new BloomFilterStage(new BinaryFuseFilter(Arrays.asList("key"), ERROR_RATE), Mode.DEDUPLICATE);
+	}
+
+	@Test
+	public void testSubmitFailureEndsStream() throws Exception{
+		//Passes everything, so the null key reaches submit, which throws
+		IMembershipFilter all = new IMembershipFilter() {
+			public Result contains(String key){
+				return Result.MAYBE;
+			}
+
+			public double getErrorRate(){
+				return 1;
+			}
+
+			public String toJSON(){
+				return toJSON(true);
+			}
+
+			public String toJSON(boolean compressed){
+				throw new UnsupportedOperationException();
+			}
+		};
+		BloomFilterProcessor processor = new BloomFilterProcessor(new BloomFilterStage(all, Mode.RETAIN_MEMBERS));
+		CompletableFuture<Void> done = processor.consume(key -> {});
+		processor.onSubscribe(new Flow.Subscription() {
+			public void request(long n){
+			}
+
+			public void cancel(){
+			}
+		});
+		processor.onNext(null);
+		processor.onComplete();
+		try{
+			done.get(30, TimeUnit.SECONDS);
+			fail("Expected the stream to fail");
+		}
+		catch(ExecutionException e){
+			assertTrue(e.getCause() instanceof NullPointerException);
+		}
+	}
+}
@@ -1,17 +1,30 @@
 package com.dirkmoors.test;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.DataFormatException;
 
 import org.junit.After;
@@ -21,8 +34,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.dirkmoors.util.bloomfilter.BloomFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilter.Layout;
 import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeConsumer;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeGenerator;
 import com.dirkmoors.util.bloomfilter.probegenerators.MersenneProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.Murmur3ProbeGenerator;
 import com.dirkmoors.util.bloomfilter.probegenerators.MurmurProbeGenerator;
 
 public class BloomFilterTest {	
@@ -99,6 +116,21 @@ public class BloomFilterTest {
 		testBloomfilterContents(bf2, states, ERROR_RATE);
 	}	
 	
+	@Test 
+	public void testMurmur3ProbeGenerator() throws IOException, DataFormatException{		
+		BloomFilter bf = new BloomFilter(englishWords.length, ERROR_RATE, new Murmur3ProbeGenerator());
+		for(String word: englishWords){
+			bf.add(word);
+		}	
+		
+		BloomFilter bf2 = BloomFilter.fromJSON(bf.toJSON());
+		assertEquals(Murmur3ProbeGenerator.NAME, bf2.getProbeGenerator().getName());
+		assertArrayEquals(bf.getData(), bf2.getData());
+		//Filled to capacity the rate sits right at ERROR_RATE, so allow some 4 
+		//standard deviations of the 100000 random trials on top
+		testBloomfilterContents(bf2, englishWords, ERROR_RATE * 1.5);
+	}
+	
 	@Test
 	public void testJsonFromPythonLibMurmur() throws IOException, DataFormatException{
 		BloomFilter bf = new BloomFilter(100000, ERROR_RATE);
@@ -129,6 +161,512 @@ public class BloomFilterTest {
 		testBloomfilterContents(bf2, states, ERROR_RATE);
 	}
 	
+	@Test
+	public void testBlockedLayout() throws IOException, DataFormatException{
+		BloomFilter standard = new BloomFilter(englishWords.length, 0.0001);
+		BloomFilter bf = new BloomFilter(englishWords.length, 0.0001, null, Layout.BLOCKED);
+		assertEquals(0, bf.getNumberOfBits() % 512);
+		assertTrue(bf.getNumberOfBits() > standard.getNumberOfBits());
+		assertEquals(standard.getNumberOfProbes(), bf.getNumberOfProbes());
+		for(String word: englishWords){
+			bf.add(word);
+		}
+		
+		BloomFilter bf2 = BloomFilter.fromJSON(bf.toJSON());
+		assertEquals(Layout.BLOCKED, bf2.getLayout());
+		assertArrayEquals(bf.getData(), bf2.getData());
+		testBloomfilterContents(bf2, englishWords, ERROR_RATE);
+	}
+	
+	@Test
+	public void testBlockedConcurrentContains() throws Exception{
+		final BloomFilter bf = new BloomFilter(englishWords.length, 0.0001, null, Layout.BLOCKED);
+		for(String word: englishWords){
+			bf.add(word);
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try{
+			List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for(int t = 0; t < 4; t++){
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						int misses = 0;
+						for(int round = 0; round < 20; round++){
+							for(String word: englishWords){
+								if(bf.contains(word) != Result.MAYBE){
+									misses++;
+								}
+							}
+						}
+						return misses;
+					}
+				}));
+			}
+			for(Future<Integer> future : futures){
+				assertEquals(0, (int)future.get());
+			}
+		}
+		finally{
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testBinaryRoundTrip() throws IOException{
+		BloomFilter bf = new BloomFilter(1000000, 0.0001, new MersenneProbeGenerator());
+		for(String state: states){
+			bf.add(state);
+		}
+		for(boolean compressed : new boolean[]{false, true}){
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			bf.writeTo(out, compressed);
+			
+			BloomFilter bf2 = BloomFilter.readFrom(new ByteArrayInputStream(out.toByteArray()));
+			assertEquals(MersenneProbeGenerator.NAME, bf2.getProbeGenerator().getName());
+			assertArrayEquals(bf.getData(), bf2.getData());
+			testBloomfilterContents(bf2, states, ERROR_RATE);
+		}
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		englishWordsBloomfilter.writeTo(out, true);
+		BloomFilter bf3 = BloomFilter.readFrom(new ByteArrayInputStream(out.toByteArray()));
+		assertArrayEquals(englishWordsBloomfilter.getData(), bf3.getData());
+	}
+	
+	@Test
+	public void testStreamingJSON() throws IOException, DataFormatException{
+		BloomFilter blocked = new BloomFilter(1000, ERROR_RATE, null, Layout.BLOCKED);
+		for(String state: states){
+			blocked.add(state);
+		}
+		for(BloomFilter bf : new BloomFilter[]{englishWordsBloomfilter, blocked}){
+			for(boolean compressed : new boolean[]{false, true}){
+				StringWriter writer = new StringWriter();
+				bf.toJSON(writer, compressed);
+				assertEquals(bf.toJSON(compressed), writer.toString());
+
+				BloomFilter bf2 = BloomFilter.fromJSON(new StringReader(writer.toString()));
+				assertEquals(bf.getLayout(), bf2.getLayout());
+				assertArrayEquals(bf.getData(), bf2.getData());
+			}
+		}
+
+		for(String path : new String[]{"res/test/jsonFromPythonLibMurmur.json", "res/test/jsonFromPythonLibMersenne.json"}){
+			String jsonFromPythonLib = readFile(path, Charset.defaultCharset());
+			BloomFilter bf = BloomFilter.fromJSON(new StringReader(jsonFromPythonLib));
+			assertArrayEquals(BloomFilter.fromJSON(jsonFromPythonLib).getData(), bf.getData());
+			testBloomfilterContents(bf, states, ERROR_RATE);
+		}
+	}
+
+	@Test
+	public void testBatchAddContains(){
+		for(Layout layout : Layout.values()){
+			BloomFilter single = new BloomFilter(20000, ERROR_RATE, null, layout);
+			BloomFilter batch = new BloomFilter(20000, ERROR_RATE, null, layout);
+			List<String> keys = new ArrayList<String>();
+			for(int i = 0; i < 10000; i++){
+				keys.add(englishWords[i % englishWords.length] + i);
+			}
+			for(String key : keys){
+				single.add(key);
+			}
+			batch.addAll(keys);
+			assertArrayEquals(single.getData(), batch.getData());
+
+			List<String> queries = new ArrayList<String>(keys);
+			for(int i = 0; i < 10000; i++){
+				queries.add("absent" + i);
+			}
+			BitSet hits = batch.containsAll(queries);
+			for(int i = 0; i < queries.size(); i++){
+				assertEquals(batch.contains(queries.get(i)) == Result.MAYBE, hits.get(i));
+			}
+			assertEquals(keys.size(), hits.nextClearBit(0));
+		}
+	}
+
+	@Test
+	public void testKeyOverloads(){
+		String[] keys = new String[]{"Alabama", "", "Ünïcödé", "日本", "😀 emoji"};
+		long[] longKeys = new long[]{0, 42, -7, Long.MAX_VALUE, Long.MIN_VALUE};
+		Charset utf8 = Charset.forName("UTF-8");
+		for(IBloomFilterProbeGenerator generator : new IBloomFilterProbeGenerator[]{
+				new MurmurProbeGenerator(), new MersenneProbeGenerator(), new Murmur3ProbeGenerator()}){
+			BloomFilter expected = new BloomFilter(1000, ERROR_RATE, generator);
+			for(String key : keys){
+				expected.add(key);
+			}
+			for(long key : longKeys){
+				expected.add(Long.toString(key));
+			}
+
+			for(int variant = 0; variant < 4; variant++){
+				BloomFilter bf = new BloomFilter(1000, ERROR_RATE, generator);
+				for(String key : keys){
+					byte[] bytes = key.getBytes(utf8);
+					byte[] padded = new byte[bytes.length + 3];
+					System.arraycopy(bytes, 0, padded, 2, bytes.length);
+					if(variant == 0){
+						bf.add(new StringBuilder(key));
+					}
+					else if(variant == 1){
+						bf.add(padded, 2, bytes.length);
+					}
+					else if(variant == 2){
+						ByteBuffer buffer = ByteBuffer.wrap(padded, 2, bytes.length);
+						bf.add(buffer);
+						assertEquals(2, buffer.position());
+					}
+					else{
+						ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+						buffer.put(bytes).flip();
+						bf.add(buffer);
+					}
+					assertEquals(Result.MAYBE, bf.contains(key));
+				}
+				for(long key : longKeys){
+					bf.add(key);
+					assertEquals(Result.MAYBE, bf.contains(Long.toString(key)));
+				}
+				assertArrayEquals(expected.getData(), bf.getData());
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBinaryIntegrity() throws IOException{
+		BloomFilter bf = new BloomFilter(1000, ERROR_RATE);
+		bf.add("Alabama");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		bf.writeTo(out);
+		byte[] bytes = out.toByteArray();
+		bytes[bytes.length - 8] ^= 1;
+		BloomFilter.readFrom(new ByteArrayInputStream(bytes));
+	}
+	
+	@Test
+	public void testWireLayoutRoundTrip(){
+		BloomFilter bf = new BloomFilter(1000, ERROR_RATE);
+		for(String state: states){
+			bf.add(state);
+		}
+		long[] wire = bf.getData();
+		assertEquals((bf.getNumberOfBits() + 31) / 32, wire.length);
+		for(long word : wire){
+			assertEquals(0, word >>> 32);
+		}
+		
+		BloomFilter bf2 = new BloomFilter(1000, ERROR_RATE, null, wire);
+		assertArrayEquals(wire, bf2.getData());
+		testBloomfilterContents(bf2, states, ERROR_RATE);
+	}
+	
+	@Test
+	public void testForEachProbeMatchesGetProbes(){
+		IBloomFilterProbeGenerator[] generators = new IBloomFilterProbeGenerator[]{
+			new MurmurProbeGenerator(), new MersenneProbeGenerator(), new Murmur3ProbeGenerator()};
+		for(IBloomFilterProbeGenerator generator : generators){
+			for(String word : englishWords){
+				final List<Integer> probes = new ArrayList<Integer>();
+				generator.forEachProbe(14, 1917012, word, new IBloomFilterProbeConsumer() {
+					@Override
+					public boolean accept(int bitno) {
+						probes.add(bitno);
+						return true;
+					}
+				});
+				BigInteger[] expected = generator.getProbes(14, 1917012, word);
+				assertEquals(expected.length, probes.size());
+				for(int i = 0; i < expected.length; i++){
+					assertEquals(expected[i].intValue(), probes.get(i).intValue());
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void testGetProbesOnlyGenerator(){
+		//Generators written before forEachProbe only implement getProbes
+		final MurmurProbeGenerator murmur = new MurmurProbeGenerator();
+		IBloomFilterProbeGenerator legacy = new IBloomFilterProbeGenerator() {
+			@Override
+			public BigInteger[] getProbes(int numProbesK, int numBitsM, String data) {
+				return murmur.getProbes(numProbesK, numBitsM, data);
+			}
+			
+			@Override
+			public String getName() {
+				return "legacy";
+			}
+		};
+		BloomFilter expected = new BloomFilter(1000, ERROR_RATE, murmur);
+		BloomFilter bf = new BloomFilter(1000, ERROR_RATE, legacy);
+		for(String state : states){
+			expected.add(state);
+			bf.add(state);
+		}
+		assertArrayEquals(expected.getData(), bf.getData());
+		testBloomfilterContents(bf, states, ERROR_RATE);
+	}
+	
+	@Test
+	public void testStatistics() throws IOException, DataFormatException{
+		BloomFilter a = new BloomFilter(20000, ERROR_RATE);
+		BloomFilter b = new BloomFilter(20000, ERROR_RATE);
+		for(int i = 0; i < 10000; i++){
+			a.add("key" + i);
+			b.add("key" + (i + 6000));
+		}
+		long bitsSet = 0;
+		for(long word : a.getData()){
+			bitsSet += Long.bitCount(word);
+		}
+		assertEquals(bitsSet, a.getNumberOfBitsSet());
+		assertEquals(bitsSet, BloomFilter.fromJSON(a.toJSON()).getNumberOfBitsSet());
+		assertEquals(10000, a.estimateNumberOfElements(), 200);
+		assertEquals(16000, a.estimateUnionSize(b), 320);
+		assertEquals(4000, a.estimateIntersectionSize(b), 320);
+		assertTrue(a.getEffectiveErrorRate() < ERROR_RATE / 10);
+
+		BloomFilter full = new BloomFilter(1000, ERROR_RATE);
+		for(int i = 0; i < 10000; i++){
+			full.add("key" + i);
+		}
+		assertTrue(full.getEffectiveErrorRate() > ERROR_RATE * 100);
+		assertEquals(10000, full.estimateNumberOfElements(), 1000);
+
+		a.union(b);
+		assertEquals(a.estimateNumberOfElements(), b.estimateUnionSize(a), 1e-9);
+	}
+
+	@Test
+	public void testDelta() throws IOException, DataFormatException{
+		BloomFilter bf = new BloomFilter(1000000, ERROR_RATE);
+		BloomFilter replica = new BloomFilter(1000000, ERROR_RATE);
+		for(int i = 0; i < 100000; i++){
+			bf.add("key" + i);
+		}
+		replica.applyDelta(bf.toDelta(0));
+		assertArrayEquals(bf.getData(), replica.getData());
+		assertEquals(bf.getVersion(), replica.getVersion());
+
+		long version = bf.getVersion();
+		for(int i = 100000; i < 100020; i++){
+			bf.add("key" + i);
+		}
+		String delta = bf.toDelta(version);
+		assertTrue(delta.length() * 10 < bf.toJSON().length());
+		replica.applyDelta(delta);
+		replica.applyDelta(delta);
+		assertArrayEquals(bf.getData(), replica.getData());
+		assertEquals(bf.getNumberOfBitsSet(), replica.getNumberOfBitsSet());
+
+		//A replica that missed a delta catches up from an older version
+		BloomFilter late = new BloomFilter(1000000, ERROR_RATE);
+		late.applyDelta(bf.toDelta(0, false));
+		assertArrayEquals(bf.getData(), late.getData());
+
+		bf.intersection(replica);
+		try{
+			bf.toDelta(version);
+			fail();
+		}
+		catch(IllegalArgumentException e){
+		}
+		try{
+			new BloomFilter(1000000, ERROR_RATE).applyDelta(bf.toDelta(bf.getVersion()));
+			fail();
+		}
+		catch(IllegalArgumentException e){
+		}
+	}
+
+	@Test
+	public void testDeltaAfterRecopy() throws IOException, DataFormatException{
+		BloomFilter bf = new BloomFilter(1000000, ERROR_RATE);
+		BloomFilter other = new BloomFilter(1000000, ERROR_RATE);
+		for(int i = 0; i < 1000; i++){
+			bf.add("key" + i);
+			other.add("key" + (i / 2));
+		}
+		bf.intersection(other);
+		
+		//Copies of every form start at the version of bf and take its deltas
+		long version = bf.getVersion();
+		String json = bf.toJSON();
+		StringWriter writer = new StringWriter();
+		bf.toJSON(writer, true);
+		BloomFilter[] replicas = {
+			BloomFilter.fromJSON(json),
+			BloomFilter.fromJSON(new StringReader(writer.toString())),
+			BloomFilter.fromJSON(bf.toJSON(true, true))};
+		for(int i = 1000; i < 1020; i++){
+			bf.add("key" + i);
+		}
+		String delta = bf.toDelta(version);
+		for(BloomFilter replica : replicas){
+			assertEquals(version, replica.getVersion());
+			replica.applyDelta(delta);
+			assertArrayEquals(bf.getData(), replica.getData());
+			assertEquals(bf.getVersion(), replica.getVersion());
+		}
+		
+		//Same after a clear, and a copy passes deltas on from its own version
+		bf.clear();
+		BloomFilter replica = BloomFilter.fromJSON(bf.toJSON());
+		version = bf.getVersion();
+		bf.add("key");
+		replica.applyDelta(bf.toDelta(version));
+		assertEquals(Result.MAYBE, replica.contains("key"));
+		BloomFilter next = BloomFilter.fromJSON(replica.toJSON());
+		version = replica.getVersion();
+		replica.add("other");
+		next.applyDelta(replica.toDelta(version));
+		assertArrayEquals(replica.getData(), next.getData());
+	}
+	
+	@Test
+	public void testSparse() throws IOException, DataFormatException{
+		BloomFilter sparse = new BloomFilter(1000000, ERROR_RATE);
+		//Passing words gives a dense filter
+		BloomFilter dense = new BloomFilter(1000000, ERROR_RATE, null, sparse.getData());
+		assertTrue(sparse.isSparse());
+		assertFalse(dense.isSparse());
+		for(int i = 0; i < 300; i++){
+			sparse.add("key" + i);
+			dense.add("key" + i);
+		}
+		assertTrue(sparse.isSparse());
+		assertArrayEquals(dense.getData(), sparse.getData());
+		assertEquals(dense.getNumberOfBitsSet(), sparse.getNumberOfBitsSet());
+		for(int i = 0; i < 300; i++){
+			assertEquals(Result.MAYBE, sparse.contains("key" + i));
+		}
+
+		String json = sparse.toJSON(true, true);
+		assertTrue(json.length() * 2 < sparse.toJSON().length());
+		assertTrue(sparse.toJSON(false, true).length() * 100 < sparse.toJSON(false).length());
+		for(BloomFilter bf : new BloomFilter[]{BloomFilter.fromJSON(json), BloomFilter.fromJSON(new StringReader(json))}){
+			assertTrue(bf.isSparse());
+			assertArrayEquals(dense.getData(), bf.getData());
+		}
+		assertFalse(BloomFilter.fromJSON(sparse.toJSON()).isSparse());
+
+		BloomFilter other = new BloomFilter(1000000, ERROR_RATE);
+		for(int i = 200; i < 400; i++){
+			other.add("key" + i);
+		}
+		BloomFilter union = BloomFilter.fromJSON(dense.toJSON());
+		union.union(other);
+		sparse.union(other);
+		assertTrue(sparse.isSparse());
+		assertArrayEquals(union.getData(), sparse.getData());
+		assertEquals(union.estimateUnionSize(other), dense.estimateUnionSize(other), 1e-9);
+
+		//Deltas are taken from the set bits, the filter stays sparse
+		BloomFilter replica = new BloomFilter(1000000, ERROR_RATE);
+		replica.applyDelta(sparse.toDelta(0));
+		replica.applyDelta(sparse.toDelta(sparse.getVersion()));
+		assertTrue(sparse.isSparse());
+		assertArrayEquals(sparse.getData(), replica.getData());
+		assertEquals(sparse.getVersion(), replica.getVersion());
+
+		BloomFilter intersection = BloomFilter.fromJSON(dense.toJSON());
+		intersection.intersection(other);
+		assertTrue(intersection.isSparse());
+		assertEquals(Result.MAYBE, intersection.contains("key250"));
+
+		//Turns dense by itself once enough bits are set
+		for(int i = 0; i < 100000; i++){
+			sparse.add("more" + i);
+			union.add("more" + i);
+		}
+		assertFalse(sparse.isSparse());
+		assertArrayEquals(union.getData(), sparse.getData());
+		assertEquals(union.getNumberOfBitsSet(), sparse.getNumberOfBitsSet());
+	}
+
+	@Test
+	public void testUnionAllIntersectAll(){
+		BloomFilter[] parts = new BloomFilter[8];
+		BloomFilter all = new BloomFilter(100000, ERROR_RATE, null, new long[0]);
+		BloomFilter common = new BloomFilter(100000, ERROR_RATE, null, new long[0]);
+		for(int p = 0; p < parts.length; p++){
+			//The last part stays sparse
+			parts[p] = new BloomFilter(100000, ERROR_RATE);
+			int numKeys = p < parts.length - 1 ? 10000 : 10;
+			for(int i = 0; i < numKeys; i++){
+				parts[p].add("key" + p + "_" + i);
+				all.add("key" + p + "_" + i);
+			}
+			for(int i = 0; i < 100; i++){
+				parts[p].add("common" + i);
+			}
+		}
+		for(int i = 0; i < 100; i++){
+			all.add("common" + i);
+			common.add("common" + i);
+		}
+		assertTrue(parts[parts.length - 1].isSparse());
+
+		BloomFilter union = new BloomFilter(100000, ERROR_RATE, null, new long[0]);
+		union.unionAll(parts);
+		assertArrayEquals(all.getData(), union.getData());
+		assertEquals(all.getNumberOfBitsSet(), union.getNumberOfBitsSet());
+
+		BloomFilter intersection = new BloomFilter(100000, ERROR_RATE, null, union.getData());
+		intersection.intersectAll(parts[0], parts[1]);
+		BloomFilter expected = new BloomFilter(100000, ERROR_RATE, null, parts[0].getData());
+		expected.intersection(parts[1]);
+		assertArrayEquals(expected.getData(), intersection.getData());
+		assertEquals(expected.getNumberOfBitsSet(), intersection.getNumberOfBitsSet());
+
+		intersection.intersectAll(parts);
+		for(int i = 0; i < 100; i++){
+			assertEquals(Result.MAYBE, intersection.contains("common" + i));
+		}
+		assertTrue(intersection.getNumberOfBitsSet() < common.getNumberOfBitsSet() * 2);
+	}
+
+	@Test
+	public void testMersenneMatchesReference(){
+		MersenneProbeGenerator generator = new MersenneProbeGenerator();
+		List<String> keys = new ArrayList<String>();
+		for(String word : readEnglishWords(Integer.MAX_VALUE)){
+			keys.add(word);
+		}
+		Random random = new Random(42);
+		for(int i = 0; i < 1000; i++){
+			char[] chars = new char[random.nextInt(200)];
+			for(int j = 0; j < chars.length; j++){
+				chars[j] = (char)random.nextInt(Character.MAX_VALUE + 1);
+			}
+			keys.add(new String(chars));
+		}
+
+		final int[] probes = new int[4];
+		for(int numBitsM : new int[]{1917012, 7, Integer.MAX_VALUE}){
+			for(String key : keys){
+				generator.forEachProbe(probes.length, numBitsM, key, new IBloomFilterProbeConsumer() {
+					private int index = 0;
+
+					@Override
+					public boolean accept(int bitno) {
+						probes[index++] = bitno;
+						return true;
+					}
+				});
+				BigInteger[] expected = generator.getProbes(probes.length, numBitsM, key);
+				for(int i = 0; i < probes.length; i++){
+					assertEquals(expected[i].intValue(), probes[i]);
+				}
+			}
+		}
+	}
+
 	private void testBloomfilterContents(BloomFilter bf, String[] expectedContents, double maxErrorRate){
 		for(String candidate: expectedContents){
 			assertTrue(bf.contains(candidate) == Result.MAYBE);
@@ -0,0 +1,84 @@
+package com.dirkmoors.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.ConcurrentBloomFilter;
+
+public class ConcurrentBloomFilterTest {
+	private static final int NUM_THREADS = 8;
+	private static final int KEYS_PER_THREAD = 20000;
+
+	@Test
+	public void testConcurrentAdd() throws Exception{
+		final ConcurrentBloomFilter cbf = new ConcurrentBloomFilter(
+			NUM_THREADS * KEYS_PER_THREAD, 0.001);
+		BloomFilter bf = new BloomFilter(NUM_THREADS * KEYS_PER_THREAD, 0.001);
+		for(int t = 0; t < NUM_THREADS; t++){
+			for(int i = 0; i < KEYS_PER_THREAD; i++){
+				bf.add(key(t, i));
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+		try{
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for(int t = 0; t < NUM_THREADS; t++){
+				final int thread = t;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for(int i = 0; i < KEYS_PER_THREAD; i++){
+							cbf.add(key(thread, i));
+							assertTrue(cbf.contains(key(thread, i)) == Result.MAYBE);
+						}
+						return null;
+					}
+				}));
+			}
+			for(Future<Void> future : futures){
+				future.get();
+			}
+		}
+		finally{
+			executor.shutdown();
+		}
+
+		assertArrayEquals(bf.getData(), cbf.getData());
+	}
+
+	@Test
+	public void testUnionAndJSON() throws IOException, DataFormatException{
+		ConcurrentBloomFilter cbf1 = new ConcurrentBloomFilter(1000, 0.001);
+		ConcurrentBloomFilter cbf2 = new ConcurrentBloomFilter(1000, 0.001);
+		for(int i = 0; i < 100; i++){
+			cbf1.add(key(1, i));
+			cbf2.add(key(2, i));
+		}
+		cbf1.union(cbf2);
+
+		ConcurrentBloomFilter restored = ConcurrentBloomFilter.fromJSON(cbf1.toJSON());
+		assertArrayEquals(cbf1.getData(), restored.getData());
+		for(int i = 0; i < 100; i++){
+			assertTrue(restored.contains(key(1, i)) == Result.MAYBE);
+			assertTrue(restored.contains(key(2, i)) == Result.MAYBE);
+		}
+	}
+
+	private static String key(int thread, int i){
+		return "key-" + thread + "-" + i;
+	}
+}
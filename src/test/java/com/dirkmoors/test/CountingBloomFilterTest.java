@@ -0,0 +1,108 @@
+package com.dirkmoors.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.CountingBloomFilter;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeConsumer;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.MersenneProbeGenerator;
+
+public class CountingBloomFilterTest {
+	private static final double ERROR_RATE = 0.001;
+
+	@Test
+	public void testAddRemove() throws IOException, DataFormatException{
+		for(int counterBits : new int[]{2, 4, 8, 16}){
+			CountingBloomFilter cbf = new CountingBloomFilter(10000, ERROR_RATE, null, counterBits);
+			BloomFilter remaining = new BloomFilter(10000, ERROR_RATE);
+			for(int i = 0; i < 10000; i++){
+				cbf.add("key" + i);
+			}
+			for(int i = 0; i < 10000; i++){
+				if(i % 2 == 0){
+					assertTrue(cbf.remove("key" + i));
+				}
+				else{
+					remaining.add("key" + i);
+				}
+			}
+
+			int falsePositives = 0;
+			for(int i = 0; i < 10000; i++){
+				if(i % 2 == 1){
+					assertEquals(Result.MAYBE, cbf.contains("key" + i));
+				}
+				else if(cbf.contains("key" + i) == Result.MAYBE){
+					falsePositives++;
+				}
+			}
+			assertTrue(falsePositives < 10000 * ERROR_RATE * 2);
+
+			if(counterBits > 2){
+				//No counter saturated, so the removed keys left no trace
+				assertArrayEquals(remaining.getData(), cbf.toBloomFilter().getData());
+			}
+			BloomFilter bf = BloomFilter.fromJSON(cbf.toJSON());
+			assertEquals(Result.MAYBE, bf.contains("key1"));
+		}
+	}
+
+	@Test
+	public void testSaturation(){
+		CountingBloomFilter cbf = new CountingBloomFilter(100, ERROR_RATE, new MersenneProbeGenerator(), 2);
+		for(int i = 0; i < 10; i++){
+			cbf.add("key");
+		}
+		for(int i = 0; i < 10; i++){
+			assertTrue(cbf.remove("key"));
+		}
+		//Saturated counters stick, so the key can never become a false negative
+		assertEquals(Result.MAYBE, cbf.contains("key"));
+		assertFalse(cbf.remove("other"));
+	}
+
+	@Test
+	public void testRemoveFalsePositiveWithRepeatedProbe(){
+		//"added" probes positions 8, 9, 10 and on once each, "other" probes 
+		//position 8 over and over and "rest" the positions of "added" after 8
+		IBloomFilterProbeGenerator generator = new MersenneProbeGenerator() {
+			@Override
+			public boolean forEachProbe(int numProbesK, int numBitsM, String data, IBloomFilterProbeConsumer consumer) {
+				for(int i = 0; i < numProbesK; i++){
+					int bitno = (
+						data.equals("added") ? 8 + i :
+						data.equals("rest") ? 9 + i % (numProbesK - 1) :
+						8);
+					if(!consumer.accept(bitno)){
+						return false;
+					}
+				}
+				return true;
+			}
+		};
+		CountingBloomFilter cbf = new CountingBloomFilter(100, ERROR_RATE, generator);
+		cbf.add("added");
+		long[] before = cbf.toBloomFilter().getData();
+
+		assertEquals(Result.MAYBE, cbf.contains("other"));
+		assertTrue(cbf.remove("other"));
+		//Only position 8 was cleared, its neighbours in the same word are unchanged
+		long[] after = cbf.toBloomFilter().getData();
+		before[0] &= ~(1L << 8);
+		assertArrayEquals(before, after);
+
+		//and still count 1, not saturated: removing them once clears them
+		assertTrue(cbf.remove("rest"));
+		assertEquals(0, cbf.toBloomFilter().getNumberOfBitsSet());
+	}
+}
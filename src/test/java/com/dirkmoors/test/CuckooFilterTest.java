@@ -0,0 +1,103 @@
+package com.dirkmoors.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.CuckooFilter;
+import com.dirkmoors.util.bloomfilter.IMutableMembershipFilter;
+import com.dirkmoors.util.bloomfilter.ScalableBloomFilter;
+
+public class CuckooFilterTest {
+	private static final double ERROR_RATE = 0.0001;
+
+	@Test
+	public void testMembership(){
+		CuckooFilter cf = new CuckooFilter(100000, ERROR_RATE);
+		BloomFilter bf = new BloomFilter(100000, ERROR_RATE);
+		assertTrue(cf.getNumberOfBuckets() * (long)CuckooFilter.BUCKET_SIZE * cf.getFingerprintBits() < 
+			bf.getNumberOfBits());
+
+		for(IMutableMembershipFilter filter : new IMutableMembershipFilter[]{cf, bf, new ScalableBloomFilter(1000, ERROR_RATE)}){
+			for(int i = 0; i < 100000; i++){
+				filter.add("key" + i);
+			}
+			int falsePositives = 0;
+			for(int i = 0; i < 100000; i++){
+				assertEquals(Result.MAYBE, filter.contains("key" + i));
+				if(filter.contains("other" + i) == Result.MAYBE){
+					falsePositives++;
+				}
+			}
+			assertTrue(falsePositives < 100000 * filter.getErrorRate() * 2 + 5);
+		}
+		assertEquals(100000, cf.getCount());
+		assertFalse(cf.isFull());
+	}
+
+	@Test
+	public void testRemove() throws IOException, DataFormatException{
+		CuckooFilter cf = new CuckooFilter(10000, ERROR_RATE);
+		for(int i = 0; i < 10000; i++){
+			cf.add("key" + i);
+		}
+		for(int i = 0; i < 10000; i += 2){
+			assertTrue(cf.remove("key" + i));
+		}
+		assertEquals(5000, cf.getCount());
+		for(int i = 1; i < 10000; i += 2){
+			assertEquals(Result.MAYBE, cf.contains("key" + i));
+		}
+		int remaining = 0;
+		for(int i = 0; i < 10000; i += 2){
+			if(cf.contains("key" + i) == Result.MAYBE){
+				remaining++;
+			}
+		}
+		assertTrue(remaining < 5);
+
+		CuckooFilter cf2 = CuckooFilter.fromJSON(cf.toJSON());
+		assertEquals(cf.getCount(), cf2.getCount());
+		for(int i = 0; i < 10000; i++){
+			assertEquals(cf.contains("key" + i), cf2.contains("key" + i));
+		}
+		assertEquals(cf.toJSON(false), CuckooFilter.fromJSON(cf.toJSON(false)).toJSON(false));
+	}
+
+	@Test
+	public void testFull(){
+		CuckooFilter cf = new CuckooFilter(1000, ERROR_RATE);
+		int added = 0;
+		while(cf.tryAdd("key" + added)){
+			added++;
+		}
+		assertTrue(cf.isFull());
+		assertTrue(added >= 1000);
+		for(int i = 0; i < added; i++){
+			assertEquals(Result.MAYBE, cf.contains("key" + i));
+		}
+		try{
+			cf.add("more");
+			assertTrue(false);
+		}
+		catch(IllegalStateException e){
+		}
+
+		//Removing makes room again, once one of the buckets of the stashed victim frees up
+		int removed = 0;
+		while(cf.isFull() && removed < added){
+			assertTrue(cf.remove("key" + removed++));
+		}
+		assertFalse(cf.isFull());
+		for(int i = removed; i < added; i++){
+			assertEquals(Result.MAYBE, cf.contains("key" + i));
+		}
+	}
+}
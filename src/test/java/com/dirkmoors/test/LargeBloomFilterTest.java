@@ -0,0 +1,112 @@
+package com.dirkmoors.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.LargeBloomFilter;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterLongProbeConsumer;
+import com.dirkmoors.util.bloomfilter.probegenerators.IBloomFilterLongProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.MersenneProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.Murmur3ProbeGenerator;
+import com.dirkmoors.util.bloomfilter.probegenerators.MurmurProbeGenerator;
+
+public class LargeBloomFilterTest {
+	private static final double ERROR_RATE = 0.001;
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBloomFilterRejectsOverflow(){
+		new BloomFilter(500000000L, 0.0001);
+	}
+
+	@Test
+	public void testLongProbes(){
+		final long numBitsM = 5000000000L;
+		IBloomFilterLongProbeGenerator[] generators = new IBloomFilterLongProbeGenerator[]{
+			new MurmurProbeGenerator(), new MersenneProbeGenerator(), new Murmur3ProbeGenerator()};
+		for(IBloomFilterLongProbeGenerator generator : generators){
+			boolean beyondInt = false;
+			for(int i = 0; i < 1000; i++){
+				List<Long> probes = probes(generator, 14, numBitsM, "key" + i);
+				assertEquals(14, probes.size());
+				assertEquals(probes, probes(generator, 14, numBitsM, "key" + i));
+				for(long bitno : probes){
+					assertTrue(bitno >= 0 && bitno < numBitsM);
+					beyondInt |= bitno > Integer.MAX_VALUE;
+				}
+			}
+			assertTrue(beyondInt);
+		}
+	}
+
+	@Test
+	public void testSameBitsAsBloomFilter(){
+		for(IBloomFilterLongProbeGenerator generator : new IBloomFilterLongProbeGenerator[]{
+				new MurmurProbeGenerator(), new Murmur3ProbeGenerator()}){
+			BloomFilter bf = new BloomFilter(100000, ERROR_RATE, generator);
+			for(int i = 0; i < 1000; i++){
+				String key = "key" + i;
+				List<Long> expected = new ArrayList<Long>();
+				for(BigInteger bitno : generator.getProbes(bf.getNumberOfProbes(), bf.getNumberOfBits(), key)){
+					expected.add(bitno.longValue());
+				}
+				assertEquals(expected, probes(generator, bf.getNumberOfProbes(), bf.getNumberOfBits(), key));
+			}
+		}
+	}
+
+	@Test
+	public void testWriteReadRoundTrip() throws IOException{
+		LargeBloomFilter lbf = new LargeBloomFilter(100000, ERROR_RATE);
+		for(int i = 0; i < 10000; i++){
+			lbf.add("key" + i);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		lbf.writeTo(out, true);
+
+		LargeBloomFilter lbf2 = LargeBloomFilter.readFrom(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(lbf.getNumberOfBits(), lbf2.getNumberOfBits());
+		assertEquals(lbf.getNumberOfProbes(), lbf2.getNumberOfProbes());
+		int falsePositives = 0;
+		for(int i = 0; i < 10000; i++){
+			assertTrue(lbf2.contains("key" + i) == Result.MAYBE);
+			if(lbf2.contains("other" + i) == Result.MAYBE){
+				falsePositives++;
+			}
+		}
+		assertTrue(falsePositives <= 10000 * ERROR_RATE * 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCorruptStreamIsRejected() throws IOException{
+		LargeBloomFilter lbf = new LargeBloomFilter(1000, ERROR_RATE);
+		lbf.add("key");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		lbf.writeTo(out);
+		byte[] bytes = out.toByteArray();
+		bytes[bytes.length - 1] ^= 1;
+		LargeBloomFilter.readFrom(new ByteArrayInputStream(bytes));
+	}
+
+	private static List<Long> probes(IBloomFilterLongProbeGenerator generator, int numProbesK, long numBitsM, String key){
+		final List<Long> probes = new ArrayList<Long>();
+		generator.forEachLongProbe(numProbesK, numBitsM, key, new IBloomFilterLongProbeConsumer() {
+			@Override
+			public boolean accept(long bitno) {
+				probes.add(bitno);
+				return true;
+			}
+		});
+		return probes;
+	}
+}
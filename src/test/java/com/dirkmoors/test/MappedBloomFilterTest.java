@@ -0,0 +1,75 @@
+package com.dirkmoors.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.MappedBloomFilter;
+import com.dirkmoors.util.bloomfilter.probegenerators.MersenneProbeGenerator;
+
+public class MappedBloomFilterTest {
+	private static final double ERROR_RATE = 0.001;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testCreateAndReopen() throws IOException{
+		File file = folder.newFile("filter.bin");
+		MappedBloomFilter mbf = MappedBloomFilter.create(file, 10000, ERROR_RATE);
+		for(int i = 0; i < 10000; i++){
+			mbf.add("key" + i);
+		}
+		mbf.force();
+
+		MappedBloomFilter reopened = MappedBloomFilter.open(file, true);
+		assertTrue(reopened.isReadOnly());
+		assertEquals(mbf.getNumberOfBits(), reopened.getNumberOfBits());
+		assertEquals(mbf.getNumberOfProbes(), reopened.getNumberOfProbes());
+		int falsePositives = 0;
+		for(int i = 0; i < 10000; i++){
+			assertTrue(reopened.contains("key" + i) == Result.MAYBE);
+			if(reopened.contains("other" + i) == Result.MAYBE){
+				falsePositives++;
+			}
+		}
+		assertTrue(falsePositives <= 10000 * ERROR_RATE * 2);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testReadOnlyRejectsAdd() throws IOException{
+		File file = folder.newFile("filter.bin");
+		MappedBloomFilter.create(file, 1000, ERROR_RATE).force();
+		MappedBloomFilter.open(file, true).add("key");
+	}
+
+	@Test
+	public void testJSONConversion() throws IOException, DataFormatException{
+		BloomFilter bf = new BloomFilter(100000, ERROR_RATE, new MersenneProbeGenerator());
+		for(int i = 0; i < 1000; i++){
+			bf.add("key" + i);
+		}
+
+		File file = folder.newFile("filter.bin");
+		MappedBloomFilter mbf = MappedBloomFilter.fromJSON(file, bf.toJSON());
+		for(int i = 0; i < 1000; i++){
+			assertTrue(mbf.contains("key" + i) == Result.MAYBE);
+		}
+		mbf.add("extra");
+		bf.add("extra");
+
+		BloomFilter bf2 = BloomFilter.fromJSON(MappedBloomFilter.open(file, false).toJSON());
+		assertArrayEquals(bf.getData(), bf2.getData());
+		assertEquals(MersenneProbeGenerator.NAME, bf2.getProbeGenerator().getName());
+	}
+}
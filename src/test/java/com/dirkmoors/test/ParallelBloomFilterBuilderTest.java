@@ -0,0 +1,85 @@
+package com.dirkmoors.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilter.Layout;
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.ParallelBloomFilterBuilder;
+import com.dirkmoors.util.bloomfilter.probegenerators.MersenneProbeGenerator;
+
+public class ParallelBloomFilterBuilderTest {
+	private static final int NUM_KEYS = 200000;
+
+	@Test
+	public void testStreamMatchesSequential(){
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try{
+			for(Layout layout : Layout.values()){
+				BloomFilter bf = new BloomFilter(NUM_KEYS, 0.001, null, layout);
+				for(int i = 0; i < NUM_KEYS; i++){
+					bf.add("key" + i);
+				}
+
+				ParallelBloomFilterBuilder builder = new ParallelBloomFilterBuilder(
+					NUM_KEYS, 0.001, null, layout, pool);
+				BloomFilter bf2 = builder.build(IntStream.range(0, NUM_KEYS).mapToObj(i -> "key" + i));
+				assertArrayEquals(bf.getData(), bf2.getData());
+			}
+		}
+		finally{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testDeltaHoldsAllWorkers() throws IOException, DataFormatException{
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try{
+			//Large enough to start out sparse, so the workers' filters densify on the way
+			ParallelBloomFilterBuilder builder = new ParallelBloomFilterBuilder(
+				NUM_KEYS * 100, 0.001, null, Layout.STANDARD, pool);
+			List<String> keys = IntStream.range(0, NUM_KEYS / 2).mapToObj(i -> "key" + i).collect(Collectors.toList());
+			BloomFilter built = builder.build(keys.stream());
+
+			BloomFilter replica = new BloomFilter(NUM_KEYS * 100, 0.001);
+			replica.applyDelta(built.toDelta(0));
+			assertArrayEquals(built.getData(), replica.getData());
+			for(int i = 0; i < NUM_KEYS / 2; i++){
+				assertEquals(Result.MAYBE, replica.contains("key" + i));
+			}
+		}
+		finally{
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testFileMatchesSequential() throws IOException{
+		Path path = Paths.get("res/test/english-words.txt");
+		Charset charset = Charset.forName("ISO-8859-1"); //The word list is not valid UTF-8
+		List<String> words = Files.readAllLines(path, charset);
+		BloomFilter bf = new BloomFilter(words.size(), 0.0001, new MersenneProbeGenerator());
+		for(String word : words){
+			bf.add(word);
+		}
+
+		ParallelBloomFilterBuilder builder = new ParallelBloomFilterBuilder(
+			words.size(), 0.0001, new MersenneProbeGenerator(), Layout.STANDARD, ForkJoinPool.commonPool());
+		assertArrayEquals(bf.getData(), builder.build(path, charset).getData());
+	}
+}
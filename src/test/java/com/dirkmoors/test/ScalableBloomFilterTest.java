@@ -0,0 +1,67 @@
+package com.dirkmoors.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.ScalableBloomFilter;
+import com.dirkmoors.util.bloomfilter.probegenerators.MersenneProbeGenerator;
+
+public class ScalableBloomFilterTest {
+	private static final double ERROR_RATE = 0.001;
+
+	@Test
+	public void testGrowth(){
+		ScalableBloomFilter sbf = new ScalableBloomFilter(1000, ERROR_RATE);
+		for(int i = 0; i < 50000; i++){
+			sbf.add("key" + i);
+		}
+		//1000 + 2000 + ... + 32000 >= 50000
+		assertEquals(6, sbf.getNumberOfStages());
+		//Every full stage stopped as soon as half its bits were set
+		for(int i = 0; i < 5; i++){
+			double fillRatio = sbf.getStages().get(i).getFillRatio();
+			assertTrue(fillRatio >= ScalableBloomFilter.MAX_FILL_RATIO && fillRatio < 0.501);
+		}
+
+		int falsePositives = 0;
+		for(int i = 0; i < 50000; i++){
+			assertEquals(Result.MAYBE, sbf.contains("key" + i));
+			if(sbf.contains("other" + i) == Result.MAYBE){
+				falsePositives++;
+			}
+		}
+		assertTrue(falsePositives < 50000 * ERROR_RATE * 2);
+	}
+
+	@Test
+	public void testJSONRoundTrip() throws IOException, DataFormatException{
+		ScalableBloomFilter sbf = new ScalableBloomFilter(1000, ERROR_RATE, new MersenneProbeGenerator(), 3, 0.8);
+		for(int i = 0; i < 5000; i++){
+			sbf.add("key" + i);
+		}
+
+		ScalableBloomFilter sbf2 = ScalableBloomFilter.fromJSON(sbf.toJSON());
+		assertEquals(sbf.getNumberOfStages(), sbf2.getNumberOfStages());
+		assertEquals(ERROR_RATE, sbf2.getErrorRate(), 1e-12);
+		for(int i = 0; i < sbf.getNumberOfStages(); i++){
+			assertArrayEquals(sbf.getStages().get(i).getData(), sbf2.getStages().get(i).getData());
+		}
+
+		//Continues where the original left off
+		for(int i = 5000; i < 30000; i++){
+			sbf.add("key" + i);
+			sbf2.add("key" + i);
+		}
+		assertEquals(sbf.getNumberOfStages(), sbf2.getNumberOfStages());
+		for(int i = 0; i < 30000; i++){
+			assertEquals(Result.MAYBE, sbf2.contains("key" + i));
+		}
+	}
+}
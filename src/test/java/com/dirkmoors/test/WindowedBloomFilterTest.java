@@ -0,0 +1,87 @@
+package com.dirkmoors.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+
+import org.junit.Test;
+
+import com.dirkmoors.util.bloomfilter.BloomFilter;
+import com.dirkmoors.util.bloomfilter.BloomFilter.Result;
+import com.dirkmoors.util.bloomfilter.WindowedBloomFilter;
+
+public class WindowedBloomFilterTest {
+	private static final double ERROR_RATE = 0.001;
+
+	private static class ManualClock implements WindowedBloomFilter.IClock {
+		long millis;
+
+		@Override
+		public long nanoTime() {
+			return this.millis * 1000000;
+		}
+	}
+
+	@Test
+	public void testCountRotation() throws IOException, DataFormatException{
+		WindowedBloomFilter wbf = new WindowedBloomFilter(new BloomFilter(1000, ERROR_RATE), 3, 1000, 0);
+		for(int i = 0; i < 2500; i++){
+			wbf.add("key" + i);
+		}
+		assertEquals(500, wbf.getCurrentCount());
+		//Three generations hold keys 0-999, 1000-1999 and 2000-2499
+		for(int i = 0; i < 2500; i++){
+			assertEquals(Result.MAYBE, wbf.contains("key" + i));
+		}
+
+		//No gap: the rotation that drops keys 0-999 keeps the 1500 after them
+		for(int i = 2500; i < 3500; i++){
+			wbf.add("key" + i);
+		}
+		int remembered = 0;
+		for(int i = 0; i < 1000; i++){
+			if(wbf.contains("key" + i) == Result.MAYBE){
+				remembered++;
+			}
+		}
+		assertTrue(remembered < 1000 * wbf.getErrorRate() * 2 + 5);
+		for(int i = 1000; i < 3500; i++){
+			assertEquals(Result.MAYBE, wbf.contains("key" + i));
+		}
+
+		WindowedBloomFilter wbf2 = WindowedBloomFilter.fromJSON(wbf.toJSON());
+		assertEquals(wbf.toJSON(false), wbf2.toJSON(false));
+		wbf.add("next");
+		wbf2.add("next");
+		assertEquals(wbf.toJSON(false), wbf2.toJSON(false));
+	}
+
+	@Test
+	public void testTimeRotation(){
+		ManualClock clock = new ManualClock();
+		WindowedBloomFilter wbf = new WindowedBloomFilter(new BloomFilter(1000, ERROR_RATE), 4, 0, 1000, clock);
+		BloomFilter first = wbf.getCurrentGeneration();
+		wbf.add("a");
+		clock.millis = 999;
+		wbf.add("b");
+		assertEquals(first, wbf.getCurrentGeneration());
+
+		//Remembered for at least 3 generations of 1 second
+		clock.millis = 3999;
+		assertEquals(Result.MAYBE, wbf.contains("a"));
+		wbf.add("c");
+		clock.millis = 4000;
+		assertEquals(Result.NO, wbf.contains("a"));
+		assertEquals(Result.NO, wbf.contains("b"));
+		assertEquals(Result.MAYBE, wbf.contains("c"));
+		//The oldest generation is reused, not reallocated
+		assertEquals(first, wbf.getCurrentGeneration());
+
+		//Everything expires after a quiet spell
+		clock.millis = 60000;
+		assertEquals(Result.NO, wbf.contains("c"));
+		assertEquals(0, wbf.getCurrentGeneration().getNumberOfBitsSet());
+	}
+}